@@ -0,0 +1,42 @@
+package com.lingmoyun.instruction;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EG指令十六进制编码，位图预先生成，只测编码部分
+ *
+ * @author guoweifeng
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EgHexBenchmark {
+
+    @Param({"LABEL", "A4"})
+    public SyntheticImages.Paper paper;
+
+    private byte[] bitmap;
+    private int byteWidth;
+    private int height;
+
+    @Setup
+    public void setup() {
+        int dpi = 203;
+        bitmap = CPCL.ImageUtils.image2Bitmap(SyntheticImages.page(paper, dpi), null);
+        byteWidth = CPCL.ImageUtils.byteWidth(paper.width(dpi));
+        height = paper.height(dpi);
+    }
+
+    @Benchmark
+    public byte[] egCommand() {
+        CpclOutput.Heap out = new CpclOutput.Heap(bitmap.length * 2 + 64);
+        BitmapEncoder.egCommand(out, bitmap, 0, byteWidth, byteWidth, height, 0, 0);
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.lingmoyun.instruction;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图片二值化及CG、EG、GG图片指令
+ *
+ * @author guoweifeng
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+
+    @Param({"203", "300"})
+    public int dpi;
+
+    @Param({"LABEL", "A4", "RECEIPT"})
+    public SyntheticImages.Paper paper;
+
+    private BufferedImage image;
+
+    @Setup
+    public void setup() {
+        image = SyntheticImages.page(paper, dpi);
+    }
+
+    @Benchmark
+    public byte[] image2Bitmap() {
+        return CPCL.ImageUtils.image2Bitmap(image, null);
+    }
+
+    @Benchmark
+    public byte[] imageCG() {
+        return CPCL.imageCG(0, 0, image, null);
+    }
+
+    @Benchmark
+    public byte[] imageEG() {
+        return CPCL.imageEG(0, 0, image, null);
+    }
+
+    @Benchmark
+    public byte[] imageGG() {
+        return CPCL.imageGG(0, 0, CPCL.DEFAULT_GG_MAX_SIZE, image, null);
+    }
+
+}
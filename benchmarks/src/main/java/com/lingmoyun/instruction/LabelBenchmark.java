@@ -0,0 +1,57 @@
+package com.lingmoyun.instruction;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 快递面单文本指令构建
+ *
+ * @author guoweifeng
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LabelBenchmark {
+
+    private String trackingNo;
+    private String receiver;
+    private String address;
+
+    @Setup
+    public void setup() {
+        trackingNo = "SF1234567890123";
+        receiver = "张三 138****8888";
+        address = "广东省深圳市南山区科技园南区高新南一道 Building 9, Room 1203";
+    }
+
+    @Benchmark
+    public byte[] shippingLabel() {
+        return CpclBuilder.createArea(0, 203, 800, 1200, 1)
+                .text(4, 0, 40, 30, "EXPRESS")
+                .text(8, 0, 560, 30, "标准快递")
+                .line(0, 100, 800, 100, 2)
+                .barCode(1, 1, 100, 60, 130, trackingNo)
+                .text(7, 0, 160, 240, trackingNo)
+                .line(0, 280, 800, 280, 2)
+                .text(8, 0, 40, 300, "收")
+                .text(8, 0, 100, 300, receiver)
+                .text(8, 0, 100, 340, address)
+                .line(0, 420, 800, 420, 1)
+                .text(8, 0, 40, 440, "寄")
+                .text(8, 0, 100, 440, "李四 139****6666")
+                .text(8, 0, 100, 480, "浙江省杭州市西湖区文三路 100 号")
+                .line(0, 560, 800, 560, 1)
+                .qrCode(560, 600, "https://example.com/track/" + trackingNo)
+                .text(7, 0, 40, 620, "Weight: 1.2kg  Pieces: 1/1")
+                .text(7, 0, 40, 660, "Order: 20260101-000123")
+                .barCode(1, 1, 100, 60, 900, trackingNo)
+                .form()
+                .print()
+                .build();
+    }
+
+}
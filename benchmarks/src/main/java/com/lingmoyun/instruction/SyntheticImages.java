@@ -0,0 +1,109 @@
+package com.lingmoyun.instruction;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * 基准测试用图片，程序生成，不依赖外部文件
+ *
+ * @author guoweifeng
+ */
+final class SyntheticImages {
+
+    /**
+     * 纸张尺寸，单位：mm
+     */
+    enum Paper {
+        /**
+         * 快递面单 100x150
+         */
+        LABEL(100, 150),
+        /**
+         * A4 210x297
+         */
+        A4(210, 297),
+        /**
+         * 小票 80mm纸(72mm可打印) x 600
+         */
+        RECEIPT(72, 600);
+
+        final int widthMm;
+        final int heightMm;
+
+        Paper(int widthMm, int heightMm) {
+            this.widthMm = widthMm;
+            this.heightMm = heightMm;
+        }
+
+        int width(int dpi) {
+            return widthMm * dpi * 10 / 254;
+        }
+
+        int height(int dpi) {
+            return heightMm * dpi * 10 / 254;
+        }
+    }
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * 生成接近实际打印内容的页面：大面积空白、文字行、条码、表格线及一块灰度渐变照片区域
+     *
+     * @param paper 纸张
+     * @param dpi   分辨率
+     * @return TYPE_INT_RGB图片
+     */
+    static BufferedImage page(Paper paper, int dpi) {
+        int w = paper.width(dpi);
+        int h = paper.height(dpi);
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            Random random = new Random(w * 31L + h);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, w, h);
+            g.setColor(Color.BLACK);
+            int line = dpi / 8;
+            g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, line * 3 / 4));
+            int y = line;
+            while (y < h - line) {
+                int kind = random.nextInt(10);
+                if (kind < 6) {
+                    // 文字行
+                    g.drawString("No." + random.nextInt(1_000_000) + " Shipping label sample text " + y, line, y);
+                    y += line;
+                } else if (kind < 8) {
+                    // 条码
+                    int bh = line * 2;
+                    for (int x = line; x < w - line; ) {
+                        int bar = 1 + random.nextInt(4);
+                        if (random.nextBoolean()) g.fillRect(x, y, bar * dpi / 203, bh);
+                        x += bar * dpi / 203 + 1;
+                    }
+                    y += bh + line;
+                } else if (kind < 9) {
+                    // 表格线
+                    g.drawRect(line / 2, y, w - line, line * 2);
+                    g.drawLine(w / 2, y, w / 2, y + line * 2);
+                    y += line * 3;
+                } else {
+                    // 照片区域
+                    int ph = Math.min(dpi, h - line - y);
+                    for (int py = 0; py < ph; py++) {
+                        for (int px = 0; px < w / 2; px++) {
+                            int v = (px * 255 / (w / 2) + py + random.nextInt(32)) & 0xFF;
+                            image.setRGB(line + px, y + py, v << 16 | v << 8 | v);
+                        }
+                    }
+                    y += ph + line;
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.lingmoyun.instruction;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * 分段解码图片文件并二值化
+ * <p>
+ * 通过{@link ImageReader}按源区域逐段解码，每段解码后立即二值化写入位图，
+ * 内存中只保留一段像素和1位/像素的位图，不再同时持有整张原图及其RGB副本。
+ * 灰度、索引色等不透明图片直接二值化，不经过RGB转换。
+ * JPEG、PNG等顺序格式读取靠后的区域时需要重新解码前面的行，因此最多分{@link #MAX_SEQUENTIAL_BANDS}段；
+ * 支持随机访问或分块存储的格式按块高对齐分段，无此限制。
+ *
+ * @author guoweifeng
+ */
+final class BandedImageReader {
+
+    /**
+     * 顺序格式最大分段数，总解码量不超过整图的(n + 1) / 2倍
+     */
+    static final int MAX_SEQUENTIAL_BANDS = 4;
+
+    private BandedImageReader() {
+    }
+
+    /**
+     * 读取图片文件并二值化
+     * 与{@link CPCL.ImageUtils#readImage(String)}后二值化结果一致
+     *
+     * @param filename  文件路径
+     * @param threshold 黑白阈值，取值范围0-255
+     * @param options   图片指令选项
+     * @return 位图，数据取自options的缓冲区池，用完后归还
+     */
+    static Bitmap read(String filename, int threshold, ImageOptions options) {
+        return open(filename, reader -> read(reader, threshold, options));
+    }
+
+    /**
+     * 打开图片文件，使用第一个可用的ImageReader
+     *
+     * @param filename 文件路径
+     * @param function 读取操作
+     * @param <R>      结果类型
+     * @return 读取结果
+     */
+    static <R> R open(String filename, ReaderFunction<R> function) {
+        File file = new File(filename);
+        if (!file.canRead()) throw new IllegalArgumentException("read image error. " + filename);
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IllegalArgumentException("read image error. unsupported format " + filename);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return function.apply(reader);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("read image error. " + filename);
+        }
+    }
+
+    interface ReaderFunction<R> {
+        R apply(ImageReader reader) throws IOException;
+    }
+
+    private static Bitmap read(ImageReader reader, int threshold, ImageOptions options) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int bandRows = bandRows(reader, width, height, options.decodeBandPixels);
+        int byteWidth = CPCL.ImageUtils.byteWidth(width);
+        byte[] data = options.bufferPool.bytes(byteWidth * height);
+        int[] errors = null;
+        if (options.dither == ImageOptions.Dither.FLOYD_STEINBERG) {
+            errors = options.bufferPool.ints(width + 2);
+            Arrays.fill(errors, 0, width + 2, 0);
+        }
+        Bands bands = new Bands(reader);
+        for (int y = 0; y < height; y += bandRows) {
+            int rows = Math.min(bandRows, height - y);
+            ImageBinarizer.of(bands.read(y, rows), threshold, options, y, errors)
+                    .binarize(data, y * byteWidth, byteWidth, options);
+        }
+        options.bufferPool.release(errors);
+        return new Bitmap(data, 0, byteWidth, width, height);
+    }
+
+    /**
+     * 按行区间解码，无法直接二值化或带透明度的段转换为RGB，转换缓冲区各段复用
+     */
+    static final class Bands {
+        private final ImageReader reader;
+        private final ImageReadParam param;
+        private final int width;
+        private final int height;
+        private BufferedImage rgb;
+
+        Bands(ImageReader reader) throws IOException {
+            this.reader = reader;
+            this.param = reader.getDefaultReadParam();
+            this.width = reader.getWidth(0);
+            this.height = reader.getHeight(0);
+        }
+
+        /**
+         * 解码[y, y + rows)行
+         */
+        BufferedImage read(int y, int rows) throws IOException {
+            param.setSourceRegion(rows < height ? new Rectangle(0, y, width, rows) : null);
+            BufferedImage band = CPCL.ImageUtils.decoded(reader.read(0, param));
+            if (!CPCL.ImageUtils.needsRgbCopy(band)) return band;
+            // 与readImage一致，转换为RGB色彩
+            if (rgb == null || rgb.getHeight() < rows) rgb = new BufferedImage(width, rows, BufferedImage.TYPE_INT_RGB);
+            BufferedImage target = rows == rgb.getHeight() ? rgb : rgb.getSubimage(0, 0, width, rows);
+            Graphics2D g = target.createGraphics();
+            if (band.getColorModel().hasAlpha()) {
+                // 与绘制到新建图片一致，透明像素叠加在黑色上
+                g.setColor(Color.BLACK);
+                g.fillRect(0, 0, width, rows);
+            }
+            g.drawImage(band, 0, 0, null);
+            g.dispose();
+            return target;
+        }
+    }
+
+    /**
+     * 每段行数
+     */
+    static int bandRows(ImageReader reader, int width, int height, int bandPixels) throws IOException {
+        if (bandPixels <= 0 || (long) width * height <= bandPixels) return height;
+        int rows = Math.max(1, bandPixels / width);
+        if (reader.isImageTiled(0)) {
+            int tileHeight = reader.getTileHeight(0);
+            rows = Math.max(tileHeight, rows / tileHeight * tileHeight);
+        } else if (!reader.isRandomAccessEasy(0)) {
+            int bands = Math.min(MAX_SEQUENTIAL_BANDS, (height + rows - 1) / rows);
+            rows = (height + bands - 1) / bands;
+        }
+        return Math.min(rows, height);
+    }
+
+}
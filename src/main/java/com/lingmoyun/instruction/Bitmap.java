@@ -0,0 +1,109 @@
+package com.lingmoyun.instruction;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+
+/**
+ * 位图(CG Data)，1位/像素，高位在前，1为黑色
+ * 第r行位于data[off + r * stride]起的byteWidth字节
+ *
+ * @author guoweifeng
+ */
+final class Bitmap {
+
+    final byte[] data;
+    final int off;
+    final int stride;
+    final int width;
+    final int height;
+    final int byteWidth;
+
+    Bitmap(byte[] data, int width, int height) {
+        this(data, 0, CPCL.ImageUtils.byteWidth(width), width, height);
+    }
+
+    Bitmap(byte[] data, int off, int stride, int width, int height) {
+        this.byteWidth = CPCL.ImageUtils.byteWidth(width);
+        check(data.length - (long) off, stride, width, height);
+        if (off < 0) throw new IllegalArgumentException("invalid off. " + off);
+        this.data = data;
+        this.off = off;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * 校验尺寸及数据长度
+     */
+    private static void check(long length, int stride, int width, int height) {
+        if (width < 0 || height < 0) throw new IllegalArgumentException("invalid size. " + width + "x" + height);
+        int byteWidth = CPCL.ImageUtils.byteWidth(width);
+        if (stride < byteWidth) throw new IllegalArgumentException("stride must be >= byteWidth. " + stride + " < " + byteWidth);
+        long required = height == 0 ? 0 : (long) (height - 1) * stride + byteWidth;
+        if (required > length) throw new IllegalArgumentException("bitmap too small. length=" + length + ", required=" + required);
+    }
+
+    /**
+     * ByteBuffer中的位图，从position开始，不改变position
+     * 堆内缓冲区直接使用底层数组，直接缓冲区复制为连续的位图
+     *
+     * @param buffer 位图
+     * @param stride 每行间隔，单位：字节
+     * @param width  宽，单位：px
+     * @param height 高，单位：px
+     * @return Bitmap
+     */
+    static Bitmap of(ByteBuffer buffer, int stride, int width, int height) {
+        if (buffer.hasArray()) {
+            return new Bitmap(buffer.array(), buffer.arrayOffset() + buffer.position(), stride, width, height);
+        }
+        int byteWidth = CPCL.ImageUtils.byteWidth(width);
+        check(buffer.remaining(), stride, width, height);
+        byte[] data = new byte[byteWidth * height];
+        ByteBuffer src = buffer.duplicate();
+        for (int r = 0; r < height; r++) {
+            src.position(buffer.position() + r * stride);
+            src.get(data, r * byteWidth, byteWidth);
+        }
+        return new Bitmap(data, width, height);
+    }
+
+    /**
+     * 1位TYPE_BYTE_BINARY图片中的位图
+     * 调色板1为黑色、行首按字节对齐且宽度为8的倍数时直接使用底层数组，
+     * 否则按字节查表转换（如默认调色板0为黑色时取反，并清除行尾多余的位）
+     *
+     * @param image 1位TYPE_BYTE_BINARY图片
+     * @return Bitmap
+     */
+    static Bitmap of(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getSampleModel() instanceof MultiPixelPackedSampleModel)
+                || !(raster.getDataBuffer() instanceof DataBufferByte)
+                || !(image.getColorModel() instanceof IndexColorModel)
+                || ((MultiPixelPackedSampleModel) raster.getSampleModel()).getPixelBitStride() != 1) {
+            throw new IllegalArgumentException("not a 1-bit TYPE_BYTE_BINARY image. type=" + image.getType());
+        }
+        MultiPixelPackedSampleModel sm = (MultiPixelPackedSampleModel) raster.getSampleModel();
+        DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int scanline = sm.getScanlineStride();
+        int tx = -raster.getSampleModelTranslateX();
+        int ty = -raster.getSampleModelTranslateY();
+        byte[] lut = ImageBinarizer.lookupTable(image.getColorModel(), 2, CPCL.DEFAULT_THRESHOLD);
+        if (lut[0] == 0 && lut[1] == 1 && sm.getBitOffset(tx) == 0 && (width & 7) == 0) {
+            return new Bitmap(db.getData(), db.getOffset() + sm.getOffset(tx, ty), scanline, width, height);
+        }
+        ImageBinarizer binarizer = ImageBinarizer.of(image, CPCL.DEFAULT_THRESHOLD);
+        byte[] data = new byte[binarizer.byteWidth * height];
+        binarizer.binarize(0, height, data, 0, binarizer.byteWidth);
+        return new Bitmap(data, width, height);
+    }
+
+}
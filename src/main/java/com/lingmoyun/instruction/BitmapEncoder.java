@@ -0,0 +1,448 @@
+package com.lingmoyun.instruction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 位图(CG Data) -> 图片指令
+ * <p>
+ * 位图按行存储，每行byteWidth字节，行间隔stride字节(stride >= byteWidth)。
+ *
+ * @author guoweifeng
+ */
+final class BitmapEncoder {
+
+    /**
+     * 空白行合并阈值，单位：字节
+     * 两段内容之间的空白行数据量不超过该值时合并为一条指令，超过则拆分，省去空白行
+     * CG每条指令头约20字节，EG的数据量按两倍计算，GG的空白行压缩后几乎不占空间，拆分收益较小
+     */
+    private static final int CG_GAP_BYTES = 24;
+    private static final int EG_GAP_BYTES = 12;
+    private static final int GG_GAP_BYTES = 256;
+
+    private BitmapEncoder() {
+    }
+
+    /**
+     * 图片指令CG
+     *
+     * @param out       输出
+     * @param data      位图
+     * @param off       位图起始位置
+     * @param stride    位图每行间隔，单位：字节
+     * @param byteWidth 宽，单位：字节
+     * @param height    高，单位：px
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param options   图片指令选项
+     */
+    static void cg(CpclOutput out, byte[] data, int off, int stride, int byteWidth, int height, int x, int y, ImageOptions options) {
+        if (!options.trimWhitespace) {
+            cgCommand(out, data, off, stride, byteWidth, height, x, y);
+            return;
+        }
+        forEachRegion(data, off, stride, byteWidth, height, CG_GAP_BYTES, (r0, r1, c0, c1) ->
+                cgCommand(out, data, off + r0 * stride + c0, stride, c1 - c0, r1 - r0, x + c0 * 8, y + r0));
+    }
+
+    /**
+     * 图片指令EG
+     *
+     * @param out       输出
+     * @param data      位图
+     * @param off       位图起始位置
+     * @param stride    位图每行间隔，单位：字节
+     * @param byteWidth 宽，单位：字节
+     * @param height    高，单位：px
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param options   图片指令选项
+     */
+    static void eg(CpclOutput out, byte[] data, int off, int stride, int byteWidth, int height, int x, int y, ImageOptions options) {
+        if (!options.trimWhitespace) {
+            egCommand(out, data, off, stride, byteWidth, height, x, y);
+            return;
+        }
+        forEachRegion(data, off, stride, byteWidth, height, EG_GAP_BYTES, (r0, r1, c0, c1) ->
+                egCommand(out, data, off + r0 * stride + c0, stride, c1 - c0, r1 - r0, x + c0 * 8, y + r0));
+    }
+
+    /**
+     * 位图按maxSize切分为多段，逐段压缩后输出GG指令
+     * 压缩后不小于源数据的段输出CG指令
+     *
+     * @param out       输出
+     * @param data      位图
+     * @param off       位图起始位置
+     * @param stride    位图每行间隔，单位：字节
+     * @param byteWidth 宽，单位：字节
+     * @param height    高，单位：px
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param maxSize   压缩数据最大值
+     * @param options   图片指令选项
+     */
+    static void gg(CpclOutput out, byte[] data, int off, int stride, int byteWidth, int height, int x, int y, int maxSize, ImageOptions options) {
+        if (!options.trimWhitespace) {
+            ggRegion(out, data, off, stride, byteWidth, height, x, y, maxSize, options);
+            return;
+        }
+        forEachRegion(data, off, stride, byteWidth, height, GG_GAP_BYTES, (r0, r1, c0, c1) ->
+                ggRegion(out, data, off + r0 * stride + c0, stride, c1 - c0, r1 - r0, x + c0 * 8, y + r0, maxSize, options));
+    }
+
+    /**
+     * 按链路模型逐段选择图片指令
+     * 链路不能传输二进制数据时输出EG；否则按maxSize切分，每段比较CG传输耗时与GG传输加解压耗时，
+     * 取耗时较少者，相邻的CG段合并为一条指令。解压速度不高于传输速率时不压缩，直接输出CG。
+     *
+     * @param out       输出
+     * @param data      位图
+     * @param off       位图起始位置
+     * @param stride    位图每行间隔，单位：字节
+     * @param byteWidth 宽，单位：字节
+     * @param height    高，单位：px
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param maxSize   GG压缩数据最大值
+     * @param options   图片指令选项
+     */
+    static void auto(CpclOutput out, byte[] data, int off, int stride, int byteWidth, int height, int x, int y, int maxSize, ImageOptions options) {
+        LinkModel link = options.link;
+        if (!link.binarySafe) {
+            eg(out, data, off, stride, byteWidth, height, x, y, options);
+        } else if (!link.mayCompress()) {
+            cg(out, data, off, stride, byteWidth, height, x, y, options);
+        } else if (!options.trimWhitespace) {
+            autoRegion(out, data, off, stride, byteWidth, height, x, y, maxSize, options);
+        } else {
+            forEachRegion(data, off, stride, byteWidth, height, GG_GAP_BYTES, (r0, r1, c0, c1) ->
+                    autoRegion(out, data, off + r0 * stride + c0, stride, c1 - c0, r1 - r0, x + c0 * 8, y + r0, maxSize, options));
+        }
+    }
+
+    private static void autoRegion(CpclOutput out, byte[] data, int off, int stride, int byteWidth, int height, int x, int y, int maxSize, ImageOptions options) {
+        int maxHeight = Math.max(1, maxSize / byteWidth);
+        int imageCount = (height + maxHeight - 1) / maxHeight;
+        List<ForkJoinTask<Strip>> tasks = null;
+        if (imageCount > 1 && options.isParallel(byteWidth * 8, height)) {
+            ForkJoinPool pool = options.pool();
+            tasks = new ArrayList<>(imageCount);
+            for (int n = 0; n < imageCount; n++) {
+                final int r0 = maxHeight * n;
+                final int rows = stripHeight(n, imageCount, maxHeight, height);
+                tasks.add(pool.submit(() -> new Strip(data, off + r0 * stride, stride, byteWidth, rows, x, y + r0, options).compress()));
+            }
+        }
+        // 待输出的CG段起始行
+        int cgFrom = -1;
+        for (int n = 0; n < imageCount; n++) {
+            int r0 = maxHeight * n;
+            int rows = stripHeight(n, imageCount, maxHeight, height);
+            Strip strip = tasks != null ? tasks.get(n).join()
+                    : new Strip(data, off + r0 * stride, stride, byteWidth, rows, x, y + r0, options).compress();
+            if (options.link.preferGG(strip.length(), strip.compressedLength)) {
+                if (cgFrom >= 0) cgCommand(out, data, off + cgFrom * stride, stride, byteWidth, r0 - cgFrom, x, y + cgFrom);
+                cgFrom = -1;
+                strip.write(out);
+            } else if (cgFrom < 0) {
+                cgFrom = r0;
+            }
+            strip.release();
+        }
+        if (cgFrom >= 0) cgCommand(out, data, off + cgFrom * stride, stride, byteWidth, height - cgFrom, x, y + cgFrom);
+    }
+
+    private static void ggRegion(CpclOutput out, byte[] data, int off, int stride, int byteWidth, int height, int x, int y, int maxSize, ImageOptions options) {
+        if (options.adaptiveStrips) {
+            adaptive(out, data, off, stride, byteWidth, height, x, y, maxSize, options);
+            return;
+        }
+
+        int maxHeight = Math.max(1, maxSize / byteWidth); // maxSize / (width / 8)
+        int imageCount = (height + maxHeight - 1) / maxHeight;
+
+        if (imageCount > 1 && options.isParallel(byteWidth * 8, height)) {
+            // 各段互不依赖，并行压缩，按原顺序输出
+            ForkJoinPool pool = options.pool();
+            List<ForkJoinTask<Strip>> tasks = new ArrayList<>(imageCount);
+            for (int n = 0; n < imageCount; n++) {
+                final int r0 = maxHeight * n;
+                final int rows = stripHeight(n, imageCount, maxHeight, height);
+                tasks.add(pool.submit(() -> Strip.of(data, off + r0 * stride, stride, byteWidth, rows, x, y + r0, options).compress()));
+            }
+            for (ForkJoinTask<Strip> task : tasks) {
+                Strip strip = task.join();
+                strip.write(out);
+                strip.release();
+            }
+            return;
+        }
+
+        for (int n = 0; n < imageCount; n++) {
+            int r0 = maxHeight * n;
+            int rows = stripHeight(n, imageCount, maxHeight, height);
+            Strip strip = Strip.of(data, off + r0 * stride, stride, byteWidth, rows, x, y + r0, options).compress();
+            strip.write(out);
+            strip.release();
+        }
+    }
+
+    /**
+     * 自适应分段
+     * 每段从maxSize / byteWidth行起步，压缩结果不超过maxSize时行数倍增，
+     * 超过后二分查找，取压缩数据不超过maxSize的最高段。
+     * 起步段不可压缩时直接输出CG。
+     */
+    private static void adaptive(CpclOutput out, byte[] data, int off, int stride, int byteWidth, int height, int x, int y, int maxSize, ImageOptions options) {
+        int baseRows = Math.max(1, maxSize / byteWidth);
+        int maxRows = Math.max(baseRows, options.maxStripSize / byteWidth);
+        int row = 0;
+        while (row < height) {
+            int from = off + row * stride;
+            int remaining = height - row;
+            int good = Math.min(baseRows, remaining);
+            Strip goodStrip = Strip.of(data, from, stride, byteWidth, good, x, y + row, options).compress();
+            if (!goodStrip.fits(maxSize)) {
+                goodStrip.release();
+            } else {
+                int limit = Math.min(remaining, maxRows);
+                int bad = limit + 1;
+                while (good < limit) {
+                    int rows = Math.min(good * 2, limit);
+                    Strip strip = Strip.of(data, from, stride, byteWidth, rows, x, y + row, options).compress();
+                    if (!strip.fits(maxSize)) {
+                        strip.release();
+                        bad = rows;
+                        break;
+                    }
+                    goodStrip.release();
+                    good = rows;
+                    goodStrip = strip;
+                }
+                // 二分查找，精度为起步行数的1/4，限制压缩次数
+                int precision = Math.max(1, baseRows / 4);
+                while (bad - good > precision) {
+                    int rows = (good + bad) >>> 1;
+                    Strip strip = Strip.of(data, from, stride, byteWidth, rows, x, y + row, options).compress();
+                    if (strip.fits(maxSize)) {
+                        goodStrip.release();
+                        good = rows;
+                        goodStrip = strip;
+                    } else {
+                        strip.release();
+                        bad = rows;
+                    }
+                }
+            }
+            goodStrip.write(out);
+            goodStrip.release();
+            row += good;
+        }
+    }
+
+    private static int stripHeight(int n, int imageCount, int maxHeight, int height) {
+        return (n == imageCount - 1) ? height - maxHeight * n : maxHeight;
+    }
+
+    /**
+     * 一段位图，开启去白边时去掉左右空白列
+     * 压缩数据缓冲区取自缓冲区池，输出后调用{@link #release()}归还
+     */
+    static final class Strip {
+        final byte[] data;
+        final int off;
+        final int stride;
+        final int byteWidth;
+        final int height;
+        final int x;
+        final int y;
+        final ImageOptions options;
+        byte[] compressed;
+        int compressedLength;
+
+        private Strip(byte[] data, int off, int stride, int byteWidth, int height, int x, int y, ImageOptions options) {
+            this.data = data;
+            this.off = off;
+            this.stride = stride;
+            this.byteWidth = byteWidth;
+            this.height = height;
+            this.x = x;
+            this.y = y;
+            this.options = options;
+        }
+
+        static Strip of(byte[] data, int off, int stride, int byteWidth, int height, int x, int y, ImageOptions options) {
+            if (options.trimWhitespace) {
+                long range = columnRange(data, off, stride, byteWidth, 0, height);
+                if (range < 0) return new Strip(data, off, stride, 0, height, x, y, options);
+                int c0 = (int) (range >>> 32);
+                int c1 = (int) range;
+                return new Strip(data, off + c0, stride, c1 - c0, height, x + c0 * 8, y, options);
+            }
+            return new Strip(data, off, stride, byteWidth, height, x, y, options);
+        }
+
+        boolean isBlank() {
+            return byteWidth == 0;
+        }
+
+        int length() {
+            return byteWidth * height;
+        }
+
+        Strip compress() {
+            if (!isBlank()) {
+                compressed = options.bufferPool.bytes(Lzo1x.maxCompressedLength(length()));
+                compressedLength = BitmapEncoder.compress(data, off, stride, byteWidth, height, compressed, options);
+            }
+            return this;
+        }
+
+        boolean fits(int maxSize) {
+            return isBlank() || compressed != null && compressedLength < length() && compressedLength <= maxSize;
+        }
+
+        /**
+         * 压缩后更小时输出GG，否则输出CG，空白段不输出
+         */
+        void write(CpclOutput out) {
+            if (isBlank()) return;
+            if (compressed == null || compressedLength >= length()) {
+                // 压缩后比源数据还大，则不使用GG指令
+                cgCommand(out, data, off, stride, byteWidth, height, x, y);
+            } else {
+                // 压缩成功，使用GG指令
+                ggCommand(out, byteWidth, height, x, y, compressed, 0, compressedLength);
+            }
+        }
+
+        void release() {
+            options.bufferPool.release(compressed);
+            compressed = null;
+        }
+    }
+
+    /**
+     * LZO1X压缩，压缩数据写入dst，dst长度不小于{@link Lzo1x#maxCompressedLength(int)}
+     * 各行连续存储时直接压缩，否则先拷贝到临时缓冲区
+     *
+     * @return 压缩数据长度
+     */
+    static int compress(byte[] data, int off, int stride, int byteWidth, int height, byte[] dst, ImageOptions options) {
+        int length = byteWidth * height;
+        if (stride == byteWidth || height == 1) return lzo(data, off, length, dst, options);
+        byte[] src = options.bufferPool.bytes(length);
+        copy(data, off, stride, byteWidth, height, src, 0);
+        int len = lzo(src, 0, length, dst, options);
+        options.bufferPool.release(src);
+        return len;
+    }
+
+    private static int lzo(byte[] src, int off, int len, byte[] dst, ImageOptions options) {
+        return options.compression == ImageOptions.Compression.HIGH
+                ? Lzo1x.compressHigh(src, off, len, dst, 0) : Lzo1x.compress(src, off, len, dst, 0);
+    }
+
+    static void copy(byte[] data, int off, int stride, int byteWidth, int height, byte[] dst, int dstOff) {
+        if (stride == byteWidth) {
+            System.arraycopy(data, off, dst, dstOff, byteWidth * height);
+            return;
+        }
+        for (int r = 0; r < height; r++) {
+            System.arraycopy(data, off + r * stride, dst, dstOff + r * byteWidth, byteWidth);
+        }
+    }
+
+    static void cgCommand(CpclOutput out, byte[] data, int off, int stride, int byteWidth, int height, int x, int y) {
+        header(out, "CG ", byteWidth, height, x, y);
+        if (stride == byteWidth) {
+            out.write(data, off, byteWidth * height);
+        } else {
+            for (int r = 0; r < height; r++) out.write(data, off + r * stride, byteWidth);
+        }
+        out.write(CPCL.LINE_BYTES);
+    }
+
+    static void egCommand(CpclOutput out, byte[] data, int off, int stride, int byteWidth, int height, int x, int y) {
+        header(out, "EG ", byteWidth, height, x, y);
+        // byte数组转十六进制，直接写入输出缓冲区
+        if (stride == byteWidth) {
+            out.writeHex(data, off, byteWidth * height);
+        } else {
+            for (int r = 0; r < height; r++) out.writeHex(data, off + r * stride, byteWidth);
+        }
+        out.write(CPCL.LINE_BYTES);
+    }
+
+    static void ggCommand(CpclOutput out, int byteWidth, int height, int x, int y, byte[] compressed, int off, int len) {
+        header(out, "GG ", byteWidth, height, x, y);
+        out.writeInt(len).write(' ').write(compressed, off, len).write(CPCL.LINE_BYTES);
+    }
+
+    static void header(CpclOutput out, String command, int byteWidth, int height, int x, int y) {
+        out.writeAscii(command).writeInt(byteWidth)
+                .write(' ').writeInt(height)
+                .write(' ').writeInt(x)
+                .write(' ').writeInt(y)
+                .write(' ');
+    }
+
+    /**
+     * [r0, r1)行中非空白列的范围[c0, c1)，高32位c0，低32位c1，全空白返回-1
+     */
+    static long columnRange(byte[] data, int off, int stride, int byteWidth, int r0, int r1) {
+        int c0 = byteWidth;
+        int c1 = 0;
+        for (int r = r0; r < r1; r++) {
+            int p = off + r * stride;
+            int left = 0;
+            while (left < c0 && data[p + left] == 0) left++;
+            if (left == c0 && c0 == byteWidth) continue;
+            c0 = Math.min(c0, left);
+            int right = byteWidth;
+            while (right > Math.max(c1, c0) && data[p + right - 1] == 0) right--;
+            c1 = Math.max(c1, right);
+        }
+        return c0 >= c1 ? -1 : ((long) c0 << 32) | c1;
+    }
+
+    interface RegionConsumer {
+        void accept(int r0, int r1, int c0, int c1);
+    }
+
+    /**
+     * 按空白行拆分位图，每段去掉左右空白列
+     * 两段之间的空白数据量不超过gapBytes时不拆分
+     */
+    static void forEachRegion(byte[] data, int off, int stride, int byteWidth, int height, int gapBytes, RegionConsumer consumer) {
+        int r0 = -1;
+        int last = -1;
+        int c0 = 0;
+        int c1 = 0;
+        for (int r = 0; r < height; r++) {
+            long range = columnRange(data, off, stride, byteWidth, r, r + 1);
+            if (range < 0) continue;
+            int rc0 = (int) (range >>> 32);
+            int rc1 = (int) range;
+            if (r0 >= 0 && (long) (r - last - 1) * (Math.max(c1, rc1) - Math.min(c0, rc0)) > gapBytes) {
+                consumer.accept(r0, last + 1, c0, c1);
+                r0 = -1;
+            }
+            if (r0 < 0) {
+                r0 = r;
+                c0 = rc0;
+                c1 = rc1;
+            } else {
+                c0 = Math.min(c0, rc0);
+                c1 = Math.max(c1, rc1);
+            }
+            last = r;
+        }
+        if (r0 >= 0) consumer.accept(r0, last + 1, c0, c1);
+    }
+
+}
@@ -0,0 +1,299 @@
+package com.lingmoyun.instruction;
+
+import java.util.ArrayDeque;
+
+/**
+ * 缓冲区池
+ * <p>
+ * 图片指令的位图、误差行、灰度行等临时缓冲区从池中取出，用完归还，高并发打印服务的稳定状态下几乎不再分配。
+ * 取出的缓冲区内容未清零，长度可能大于请求长度。
+ * 缓冲区按2的幂分级，超过单个缓冲区上限的请求直接分配、归还时丢弃。
+ * <pre>
+ * ImageOptions options = ImageOptions.newOptions().bufferPool(BufferPool.threadLocal(4 &lt;&lt; 20));
+ * </pre>
+ *
+ * @author guoweifeng
+ */
+public abstract class BufferPool {
+
+    /**
+     * 不缓存，每次新分配
+     */
+    static final BufferPool NONE = new BufferPool() {
+        @Override
+        public byte[] bytes(int minLength) {
+            return new byte[minLength];
+        }
+
+        @Override
+        public int[] ints(int minLength) {
+            return new int[minLength];
+        }
+
+        @Override
+        public void release(byte[] buffer) {
+        }
+
+        @Override
+        public void release(int[] buffer) {
+        }
+
+        @Override
+        public String toString() {
+            return "BufferPool.NONE";
+        }
+    };
+
+    /**
+     * 线程内缓冲区池，每个线程各自缓存，无锁，适合固定大小的线程池
+     *
+     * @param maxBytesPerThread 每个线程缓存的最大字节数，也是单个缓冲区的上限
+     * @return BufferPool
+     */
+    public static BufferPool threadLocal(long maxBytesPerThread) {
+        return new ThreadLocalPool(maxBytesPerThread);
+    }
+
+    /**
+     * 共享缓冲区池，所有线程共用，有上限，线程安全
+     *
+     * @param maxBuffers 缓存的最大缓冲区数
+     * @param maxBytes   缓存的最大字节数，也是单个缓冲区的上限
+     * @return BufferPool
+     */
+    public static BufferPool newPool(int maxBuffers, long maxBytes) {
+        return new SharedPool(maxBuffers, maxBytes);
+    }
+
+    /**
+     * 取出字节缓冲区
+     *
+     * @param minLength 最小长度
+     * @return 长度不小于minLength的缓冲区，内容未清零
+     */
+    public abstract byte[] bytes(int minLength);
+
+    /**
+     * 取出整数缓冲区
+     *
+     * @param minLength 最小长度
+     * @return 长度不小于minLength的缓冲区，内容未清零
+     */
+    public abstract int[] ints(int minLength);
+
+    /**
+     * 归还字节缓冲区，归还后调用方不得再使用
+     *
+     * @param buffer 缓冲区，null忽略
+     */
+    public abstract void release(byte[] buffer);
+
+    /**
+     * 归还整数缓冲区，归还后调用方不得再使用
+     *
+     * @param buffer 缓冲区，null忽略
+     */
+    public abstract void release(int[] buffer);
+
+    /**
+     * 按2的幂分级的空闲缓冲区，非线程安全
+     */
+    static final class Buckets {
+        /**
+         * 最小分级，64字节/64个整数
+         */
+        private static final int MIN_SHIFT = 6;
+
+        private final ArrayDeque<byte[]>[] bytes;
+        private final ArrayDeque<int[]>[] ints;
+        private final int maxBuffers;
+        private final long maxBytes;
+        private int count;
+        private long size;
+        long hitCount;
+        long missCount;
+
+        Buckets(int maxBuffers, long maxBytes) {
+            if (maxBuffers < 1) throw new IllegalArgumentException("maxBuffers must be >= 1. " + maxBuffers);
+            if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be >= 1. " + maxBytes);
+            this.maxBuffers = maxBuffers;
+            this.maxBytes = maxBytes;
+            this.bytes = buckets();
+            this.ints = buckets();
+        }
+
+        /**
+         * 每个分级一个空闲队列，泛型数组只能以原始类型创建
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static <T> ArrayDeque<T>[] buckets() {
+            return new ArrayDeque[32];
+        }
+
+        /**
+         * 长度所在分级，即不小于长度的最小2的幂
+         */
+        static int bucket(int length) {
+            return Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1));
+        }
+
+        /**
+         * 可归还的缓冲区长度恰好为2的幂，其分级；否则返回-1
+         */
+        private static int exactBucket(int length) {
+            return length >= 1 << MIN_SHIFT && Integer.bitCount(length) == 1 ? Integer.numberOfTrailingZeros(length) : -1;
+        }
+
+        byte[] takeBytes(int minLength) {
+            int b = bucket(minLength);
+            if (b < 31 && (1L << b) <= maxBytes) {
+                ArrayDeque<byte[]> free = bytes[b];
+                byte[] buffer = free == null ? null : free.pollLast();
+                if (buffer != null) {
+                    count--;
+                    size -= buffer.length;
+                    hitCount++;
+                    return buffer;
+                }
+                missCount++;
+                return new byte[1 << b];
+            }
+            missCount++;
+            return new byte[minLength];
+        }
+
+        int[] takeInts(int minLength) {
+            int b = bucket(minLength);
+            if (b < 29 && (4L << b) <= maxBytes) {
+                ArrayDeque<int[]> free = ints[b];
+                int[] buffer = free == null ? null : free.pollLast();
+                if (buffer != null) {
+                    count--;
+                    size -= 4L * buffer.length;
+                    hitCount++;
+                    return buffer;
+                }
+                missCount++;
+                return new int[1 << b];
+            }
+            missCount++;
+            return new int[minLength];
+        }
+
+        void put(byte[] buffer) {
+            int b = exactBucket(buffer.length);
+            if (b < 0 || count >= maxBuffers || size + buffer.length > maxBytes) return;
+            if (bytes[b] == null) bytes[b] = new ArrayDeque<>();
+            bytes[b].addLast(buffer);
+            count++;
+            size += buffer.length;
+        }
+
+        void put(int[] buffer) {
+            int b = exactBucket(buffer.length);
+            if (b < 0 || count >= maxBuffers || size + 4L * buffer.length > maxBytes) return;
+            if (ints[b] == null) ints[b] = new ArrayDeque<>();
+            ints[b].addLast(buffer);
+            count++;
+            size += 4L * buffer.length;
+        }
+
+        int count() {
+            return count;
+        }
+
+        long size() {
+            return size;
+        }
+    }
+
+    static final class ThreadLocalPool extends BufferPool {
+        private final long maxBytesPerThread;
+        private final ThreadLocal<Buckets> buckets;
+
+        ThreadLocalPool(long maxBytesPerThread) {
+            if (maxBytesPerThread < 1) throw new IllegalArgumentException("maxBytesPerThread must be >= 1. " + maxBytesPerThread);
+            this.maxBytesPerThread = maxBytesPerThread;
+            this.buckets = new ThreadLocal<Buckets>() {
+                @Override
+                protected Buckets initialValue() {
+                    return new Buckets(Integer.MAX_VALUE, maxBytesPerThread);
+                }
+            };
+        }
+
+        @Override
+        public byte[] bytes(int minLength) {
+            return buckets.get().takeBytes(minLength);
+        }
+
+        @Override
+        public int[] ints(int minLength) {
+            return buckets.get().takeInts(minLength);
+        }
+
+        @Override
+        public void release(byte[] buffer) {
+            if (buffer != null) buckets.get().put(buffer);
+        }
+
+        @Override
+        public void release(int[] buffer) {
+            if (buffer != null) buckets.get().put(buffer);
+        }
+
+        @Override
+        public String toString() {
+            Buckets b = buckets.get();
+            return "BufferPool.threadLocal{maxBytesPerThread=" + maxBytesPerThread + ", thread: buffers=" + b.count()
+                    + ", bytes=" + b.size() + ", hitCount=" + b.hitCount + ", missCount=" + b.missCount + "}";
+        }
+    }
+
+    static final class SharedPool extends BufferPool {
+        private final Buckets buckets;
+
+        SharedPool(int maxBuffers, long maxBytes) {
+            this.buckets = new Buckets(maxBuffers, maxBytes);
+        }
+
+        @Override
+        public byte[] bytes(int minLength) {
+            synchronized (buckets) {
+                return buckets.takeBytes(minLength);
+            }
+        }
+
+        @Override
+        public int[] ints(int minLength) {
+            synchronized (buckets) {
+                return buckets.takeInts(minLength);
+            }
+        }
+
+        @Override
+        public void release(byte[] buffer) {
+            if (buffer == null) return;
+            synchronized (buckets) {
+                buckets.put(buffer);
+            }
+        }
+
+        @Override
+        public void release(int[] buffer) {
+            if (buffer == null) return;
+            synchronized (buckets) {
+                buckets.put(buffer);
+            }
+        }
+
+        @Override
+        public String toString() {
+            synchronized (buckets) {
+                return "BufferPool{buffers=" + buckets.count() + ", bytes=" + buckets.size()
+                        + ", hitCount=" + buckets.hitCount + ", missCount=" + buckets.missCount + "}";
+            }
+        }
+    }
+
+}
@@ -1,14 +1,17 @@
 package com.lingmoyun.instruction;
 
-import com.lingmoyun.minilzo.MiniLZO;
-
 import javax.imageio.ImageIO;
 import java.awt.*;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 /**
  * CPCL指令
@@ -21,6 +24,7 @@ public class CPCL {
     public static final String QR_CODE_ECC_M = "M";
     public static final String QR_CODE_ECC_L = "L";
     public static final int DEFAULT_THRESHOLD = 128;
+    public static final int DEFAULT_GG_MAX_SIZE = 4096;
 
     //"\r"->0D  "\n"->0A
     static final String LINE = "\n";
@@ -45,11 +49,16 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] cut(int h, int time) {
+        return cut(new CpclOutput.Heap(32), h, time).toByteArray();
+    }
+
+    static <T extends CpclOutput> T cut(T out, int h, int time) {
+        out.writeAscii("CUT ").writeInt(h);
         if (time >= 0) {
-            return toBytes("CUT " + h + "," + time + "" + LINE);
-        } else {
-            return toBytes("CUT " + h + LINE);
+            out.write(',').writeInt(time);
         }
+        out.write(LINE_BYTES);
+        return out;
     }
 
     /**
@@ -61,7 +70,7 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] area(int offset, int height, int qty) {
-        return toBytes("! " + offset + " 203 203 " + height + " " + qty + LINE);
+        return area(offset, 203, height, qty);
     }
 
     /**
@@ -74,11 +83,26 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] area(int offset, int dpi, int height, int qty) {
-        return toBytes("! " + offset + " " + dpi + " " + dpi + " " + height + " " + qty + LINE);
+        return area(new CpclOutput.Heap(32), offset, dpi, height, qty).toByteArray();
+    }
+
+    static <T extends CpclOutput> T area(T out, int offset, int dpi, int height, int qty) {
+        out.writeAscii("! ").writeInt(offset)
+                .write(' ').writeInt(dpi)
+                .write(' ').writeInt(dpi)
+                .write(' ').writeInt(height)
+                .write(' ').writeInt(qty)
+                .write(LINE_BYTES);
+        return out;
     }
 
     public static byte[] pageWidth(int width) {
-        return toBytes("PW " + width + LINE);
+        return pageWidth(new CpclOutput.Heap(16), width).toByteArray();
+    }
+
+    static <T extends CpclOutput> T pageWidth(T out, int width) {
+        out.writeAscii("PW ").writeInt(width).write(LINE_BYTES);
+        return out;
     }
 
     /**
@@ -88,11 +112,21 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] taskId(String taskId) {
-        return toBytes("TASKID " + taskId + LINE);
+        return taskId(new CpclOutput.Heap(32), taskId).toByteArray();
+    }
+
+    static <T extends CpclOutput> T taskId(T out, String taskId) {
+        out.writeAscii("TASKID ").writeText(taskId).write(LINE_BYTES);
+        return out;
     }
 
     public static byte[] density(int density) {
-        return toBytes("DENSITY " + density + LINE);
+        return density(new CpclOutput.Heap(16), density).toByteArray();
+    }
+
+    static <T extends CpclOutput> T density(T out, int density) {
+        out.writeAscii("DENSITY ").writeInt(density).write(LINE_BYTES);
+        return out;
     }
 
     /**
@@ -121,6 +155,18 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] text(int degree, int font, int fontSize, int x, int y, String data) {
+        return text(new CpclOutput.Heap(64), degree, font, fontSize, x, y, data).toByteArray();
+    }
+
+    static <T extends CpclOutput> T text(T out, int degree, int font, int fontSize, int x, int y, String data) {
+        textPrefix(out, degree, font, fontSize, x, y).writeText(data).write(LINE_BYTES);
+        return out;
+    }
+
+    /**
+     * 文本指令中数据之前的部分：TEXT font fontSize x y
+     */
+    static <T extends CpclOutput> T textPrefix(T out, int degree, int font, int fontSize, int x, int y) {
         String command;
         switch (degree) {
             case 90:
@@ -136,7 +182,13 @@ public class CPCL {
                 command = "TEXT";
                 break;
         }
-        return toBytes(command + " " + font + " " + fontSize + " " + x + " " + y + " " + data + LINE);
+        out.writeAscii(command)
+                .write(' ').writeInt(font)
+                .write(' ').writeInt(fontSize)
+                .write(' ').writeInt(x)
+                .write(' ').writeInt(y)
+                .write(' ');
+        return out;
     }
 
     /**
@@ -162,7 +214,17 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] line(int x0, int y0, int x1, int y1, int width) {
-        return toBytes("LINE " + x0 + " " + y0 + " " + x1 + " " + y1 + " " + width + LINE);
+        return line(new CpclOutput.Heap(48), x0, y0, x1, y1, width).toByteArray();
+    }
+
+    static <T extends CpclOutput> T line(T out, int x0, int y0, int x1, int y1, int width) {
+        out.writeAscii("LINE ").writeInt(x0)
+                .write(' ').writeInt(y0)
+                .write(' ').writeInt(x1)
+                .write(' ').writeInt(y1)
+                .write(' ').writeInt(width)
+                .write(LINE_BYTES);
+        return out;
     }
 
     /**
@@ -182,7 +244,25 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] barCode(int width, int ratio, int height, int x, int y, String data) {
-        return toBytes("BARCODE 128 " + width + " " + ratio + " " + height + " " + x + " " + y + " " + data + LINE);
+        return barCode(new CpclOutput.Heap(64), width, ratio, height, x, y, data).toByteArray();
+    }
+
+    static <T extends CpclOutput> T barCode(T out, int width, int ratio, int height, int x, int y, String data) {
+        barCodePrefix(out, width, ratio, height, x, y).writeText(data).write(LINE_BYTES);
+        return out;
+    }
+
+    /**
+     * 条形码指令中数据之前的部分：BARCODE 128 width ratio height x y
+     */
+    static <T extends CpclOutput> T barCodePrefix(T out, int width, int ratio, int height, int x, int y) {
+        out.writeAscii("BARCODE 128 ").writeInt(width)
+                .write(' ').writeInt(ratio)
+                .write(' ').writeInt(height)
+                .write(' ').writeInt(x)
+                .write(' ').writeInt(y)
+                .write(' ');
+        return out;
     }
 
     /**
@@ -211,12 +291,34 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] qrCode(String ecc, int x, int y, String data) {
-        return toBytes("BARCODE QR " + x + " " + y + " M 2 U 6"
-                + LINE
-                + ecc + "A," + data
-                + LINE
-                + "ENDQR"
-                + LINE);
+        return qrCode(new CpclOutput.Heap(96), ecc, x, y, data).toByteArray();
+    }
+
+    static <T extends CpclOutput> T qrCode(T out, String ecc, int x, int y, String data) {
+        qrCodePrefix(out, ecc, x, y).writeText(data);
+        return qrCodeSuffix(out);
+    }
+
+    /**
+     * 二维码指令中数据之前的部分
+     */
+    static <T extends CpclOutput> T qrCodePrefix(T out, String ecc, int x, int y) {
+        out.writeAscii("BARCODE QR ").writeInt(x)
+                .write(' ').writeInt(y)
+                .writeAscii(" M 2 U 6")
+                .write(LINE_BYTES)
+                .writeText(ecc).writeAscii("A,");
+        return out;
+    }
+
+    /**
+     * 二维码指令中数据之后的部分
+     */
+    static <T extends CpclOutput> T qrCodeSuffix(T out) {
+        out.write(LINE_BYTES)
+                .writeAscii("ENDQR")
+                .write(LINE_BYTES);
+        return out;
     }
 
     /**
@@ -243,7 +345,19 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] imageCG(int x, int y, String filename, Integer threshold) {
-        return imageCG(x, y, ImageUtils.readImage(filename), threshold);
+        return imageCG(new CpclOutput.Heap(), x, y, filename, threshold, ImageOptions.DEFAULT).toByteArray();
+    }
+
+    static <T extends CpclOutput> T imageCG(T out, int x, int y, String filename, Integer threshold, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.file((CpclOutput.Counter) out, ImageCache.CG, x, y, 0, filename, threshold, options);
+            return out;
+        }
+        if (options.cache != null) return imageCG(out, x, y, ImageUtils.readImage(filename), threshold, options);
+        Bitmap bitmap = ImageUtils.readBitmap(filename, threshold, options);
+        BitmapEncoder.cg(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, options);
+        options.bufferPool.release(bitmap.data);
+        return out;
     }
 
     /**
@@ -270,8 +384,34 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] imageCG(int x, int y, BufferedImage image, Integer threshold) {
-        byte[] bitmap = ImageUtils.image2Bitmap(image, threshold);
-        return imageCG(image.getWidth(), image.getHeight(), x, y, bitmap);
+        return imageCG(x, y, image, threshold, ImageOptions.DEFAULT);
+    }
+
+    /**
+     * 图片指令CG
+     * CG w h x y data
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param image     图片
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @param options   图片指令选项
+     * @return CPCL
+     */
+    public static byte[] imageCG(int x, int y, BufferedImage image, Integer threshold, ImageOptions options) {
+        return imageCG(new CpclOutput.Heap(), x, y, image, threshold, options).toByteArray();
+    }
+
+    static <T extends CpclOutput> T imageCG(T out, int x, int y, BufferedImage image, Integer threshold, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.image((CpclOutput.Counter) out, ImageCache.CG, x, y, 0, image, threshold, options);
+            return out;
+        }
+        if (options.cache != null) return cachedImage(out, x, y, 0, image, threshold, ImageCache.CG, options);
+        Bitmap bitmap = ImageUtils.binarize(image, threshold, options);
+        BitmapEncoder.cg(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, options);
+        options.bufferPool.release(bitmap.data);
+        return out;
     }
 
     /**
@@ -286,7 +426,17 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] imageCG(int w, int h, int x, int y, byte[] bitmap) {
-        return merge(toBytes("CG " + ImageUtils.byteWidth(w) + " " + h + " " + x + " " + y + " "), bitmap, LINE_BYTES);
+        return imageCG(new CpclOutput.Heap(bitmap.length + 32), w, h, x, y, bitmap, 0, bitmap.length).toByteArray();
+    }
+
+    static <T extends CpclOutput> T imageCG(T out, int w, int h, int x, int y, byte[] bitmap, int off, int len) {
+        out.writeAscii("CG ").writeInt(ImageUtils.byteWidth(w))
+                .write(' ').writeInt(h)
+                .write(' ').writeInt(x)
+                .write(' ').writeInt(y)
+                .write(' ').write(bitmap, off, len)
+                .write(LINE_BYTES);
+        return out;
     }
 
     /**
@@ -313,7 +463,19 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] imageEG(int x, int y, String filename, Integer threshold) {
-        return imageEG(x, y, ImageUtils.readImage(filename), threshold);
+        return imageEG(new CpclOutput.Heap(), x, y, filename, threshold, ImageOptions.DEFAULT).toByteArray();
+    }
+
+    static <T extends CpclOutput> T imageEG(T out, int x, int y, String filename, Integer threshold, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.file((CpclOutput.Counter) out, ImageCache.EG, x, y, 0, filename, threshold, options);
+            return out;
+        }
+        if (options.cache != null) return imageEG(out, x, y, ImageUtils.readImage(filename), threshold, options);
+        Bitmap bitmap = ImageUtils.readBitmap(filename, threshold, options);
+        BitmapEncoder.eg(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, options);
+        options.bufferPool.release(bitmap.data);
+        return out;
     }
 
     /**
@@ -340,15 +502,34 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] imageEG(int x, int y, BufferedImage image, Integer threshold) {
-        byte[] bitmap = ImageUtils.image2Bitmap(image, threshold);
+        return imageEG(x, y, image, threshold, ImageOptions.DEFAULT);
+    }
 
-        // byte数组转十六进制
-        StringBuilder builder = new StringBuilder();
-        for (byte b : bitmap)
-            builder.append(String.format("%02X", (b & 0xFF)));
+    /**
+     * 图片指令EG
+     * EG w h x y data
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param image     图片
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @param options   图片指令选项
+     * @return CPCL
+     */
+    public static byte[] imageEG(int x, int y, BufferedImage image, Integer threshold, ImageOptions options) {
+        return imageEG(new CpclOutput.Heap(), x, y, image, threshold, options).toByteArray();
+    }
 
-        byte[] bitmapHex = toBytes(builder.toString());
-        return merge(toBytes("EG " + ImageUtils.byteWidth(image.getWidth()) + " " + image.getHeight() + " " + x + " " + y + " "), bitmapHex, LINE_BYTES);
+    static <T extends CpclOutput> T imageEG(T out, int x, int y, BufferedImage image, Integer threshold, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.image((CpclOutput.Counter) out, ImageCache.EG, x, y, 0, image, threshold, options);
+            return out;
+        }
+        if (options.cache != null) return cachedImage(out, x, y, 0, image, threshold, ImageCache.EG, options);
+        Bitmap bitmap = ImageUtils.binarize(image, threshold, options);
+        BitmapEncoder.eg(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, options);
+        options.bufferPool.release(bitmap.data);
+        return out;
     }
 
     /**
@@ -375,7 +556,7 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] imageGG(int x, int y, String filename, Integer threshold) {
-        return imageGG(x, y, ImageUtils.readImage(filename), threshold);
+        return imageGG(x, y, DEFAULT_GG_MAX_SIZE, filename, threshold);
     }
 
     /**
@@ -404,7 +585,19 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] imageGG(int x, int y, int maxSize, String filename, Integer threshold) {
-        return imageGG(x, y, maxSize, ImageUtils.readImage(filename), threshold);
+        return imageGG(new CpclOutput.Heap(), x, y, maxSize, filename, threshold, ImageOptions.DEFAULT).toByteArray();
+    }
+
+    static <T extends CpclOutput> T imageGG(T out, int x, int y, int maxSize, String filename, Integer threshold, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.file((CpclOutput.Counter) out, ImageCache.GG, x, y, maxSize, filename, threshold, options);
+            return out;
+        }
+        if (options.cache != null) return imageGG(out, x, y, maxSize, ImageUtils.readImage(filename), threshold, options);
+        Bitmap bitmap = ImageUtils.readBitmap(filename, threshold, options);
+        BitmapEncoder.gg(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, maxSize, options);
+        options.bufferPool.release(bitmap.data);
+        return out;
     }
 
     /**
@@ -431,7 +624,7 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] imageGG(int x, int y, BufferedImage image, Integer threshold) {
-        return imageGG(x, y, 4096, image, threshold);
+        return imageGG(x, y, DEFAULT_GG_MAX_SIZE, image, threshold);
     }
 
     /**
@@ -460,40 +653,56 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] imageGG(int x, int y, int maxSize, BufferedImage image, Integer threshold) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        int byteWidth = ImageUtils.byteWidth(width);
-        int maxHeight = maxSize / byteWidth; // maxSize / (width / 8)
-        int imageCount = (int) Math.ceil(height * 1.0 / maxHeight);
-
-        byte[] bitmap = ImageUtils.image2Bitmap(image, threshold);
-
-        ByteArrayOutputStream instructions = new ByteArrayOutputStream();
-        for (int n = 0; n < imageCount; n++) {
-            int subY = y + (maxHeight * n);
-            int subHeight = (n == imageCount - 1) ? height - maxHeight * n : maxHeight;
-            byte[] subBitmap = new byte[byteWidth * subHeight];
-            System.arraycopy(bitmap, maxHeight * n * byteWidth, subBitmap, 0, subBitmap.length);
-
-            byte[] subBitmapCompressed = null;
-            try {
-                subBitmapCompressed = MiniLZO.compress(subBitmap);
-            } catch (Exception ignored) {
-            }
+        return imageGG(x, y, maxSize, image, threshold, ImageOptions.DEFAULT);
+    }
 
-            byte[] instruction;
-            if (subBitmapCompressed == null || subBitmapCompressed.length == 0 || subBitmapCompressed.length >= subBitmap.length) {
-                // 压缩失败或者压缩后比源数据还大，则不使用GG指令
-                instruction = imageCG(width, subHeight, x, subY, subBitmap);
-            } else {
-                // 压缩成功，使用GG指令
-                instruction = imageGG(width, subHeight, x, subY, subBitmapCompressed);
-            }
+    /**
+     * 图片指令GG优化
+     * GG w h x y size lzo(CG data)
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param maxSize   压缩数据最大值
+     * @param image     图片
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @param options   图片指令选项
+     * @return CPCL
+     */
+    public static byte[] imageGG(int x, int y, int maxSize, BufferedImage image, Integer threshold, ImageOptions options) {
+        return imageGG(new CpclOutput.Heap(), x, y, maxSize, image, threshold, options).toByteArray();
+    }
 
-            instructions.write(instruction, 0, instruction.length);
+    static <T extends CpclOutput> T imageGG(T out, int x, int y, int maxSize, BufferedImage image, Integer threshold, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.image((CpclOutput.Counter) out, ImageCache.GG, x, y, maxSize, image, threshold, options);
+            return out;
         }
+        if (options.cache != null) return cachedImage(out, x, y, maxSize, image, threshold, ImageCache.GG, options);
+        Bitmap bitmap = ImageUtils.binarize(image, threshold, options);
+        BitmapEncoder.gg(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, maxSize, options);
+        options.bufferPool.release(bitmap.data);
+        return out;
+    }
 
-        return instructions.toByteArray();
+    /**
+     * 经缓存输出图片指令，未命中时以(0, 0)为坐标编码
+     */
+    private static <T extends CpclOutput> T cachedImage(T out, int x, int y, int maxSize, BufferedImage image, Integer threshold, int command, ImageOptions options) {
+        int t = threshold == null ? DEFAULT_THRESHOLD : threshold;
+        options.cache.write(out, x, y, ImageCache.key(image, t, command, maxSize, options), () -> {
+            CpclOutput.Heap heap = new CpclOutput.Heap();
+            Bitmap bitmap = ImageUtils.binarize(image, t, options);
+            if (command == ImageCache.CG) {
+                BitmapEncoder.cg(heap, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, 0, 0, options);
+            } else if (command == ImageCache.EG) {
+                BitmapEncoder.eg(heap, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, 0, 0, options);
+            } else {
+                BitmapEncoder.gg(heap, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, 0, 0, maxSize, options);
+            }
+            options.bufferPool.release(bitmap.data);
+            return heap.toByteArray();
+        });
+        return out;
     }
 
     /**
@@ -508,7 +717,263 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] imageGG(int w, int h, int x, int y, byte[] bitmapCompressed) {
-        return merge(toBytes("GG " + ImageUtils.byteWidth(w) + " " + h + " " + x + " " + y + " " + bitmapCompressed.length + " "), bitmapCompressed, LINE_BYTES);
+        return imageGG(new CpclOutput.Heap(bitmapCompressed.length + 40), w, h, x, y, bitmapCompressed, 0, bitmapCompressed.length).toByteArray();
+    }
+
+    static <T extends CpclOutput> T imageGG(T out, int w, int h, int x, int y, byte[] bitmapCompressed, int off, int len) {
+        BitmapEncoder.ggCommand(out, ImageUtils.byteWidth(w), h, x, y, bitmapCompressed, off, len);
+        return out;
+    }
+
+    /**
+     * 图片指令，按{@link ImageOptions#link(LinkModel)}的链路模型逐段选择CG、EG或GG
+     * 不使用图片缓存
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param image     图片
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @param options   图片指令选项
+     * @return CPCL
+     */
+    public static byte[] image(int x, int y, BufferedImage image, Integer threshold, ImageOptions options) {
+        return image(new CpclOutput.Heap(), x, y, DEFAULT_GG_MAX_SIZE, image, threshold, options).toByteArray();
+    }
+
+    /**
+     * 图片指令，按{@link ImageOptions#link(LinkModel)}的链路模型逐段选择CG、EG或GG
+     * 不使用图片缓存
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param maxSize   GG压缩数据最大值
+     * @param image     图片
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @param options   图片指令选项
+     * @return CPCL
+     */
+    public static byte[] image(int x, int y, int maxSize, BufferedImage image, Integer threshold, ImageOptions options) {
+        return image(new CpclOutput.Heap(), x, y, maxSize, image, threshold, options).toByteArray();
+    }
+
+    /**
+     * 图片指令，按{@link ImageOptions#link(LinkModel)}的链路模型逐段选择CG、EG或GG
+     * 不使用图片缓存
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param filename  文件路径
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @param options   图片指令选项
+     * @return CPCL
+     */
+    public static byte[] image(int x, int y, String filename, Integer threshold, ImageOptions options) {
+        return image(new CpclOutput.Heap(), x, y, DEFAULT_GG_MAX_SIZE, filename, threshold, options).toByteArray();
+    }
+
+    static <T extends CpclOutput> T image(T out, int x, int y, int maxSize, BufferedImage image, Integer threshold, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.image((CpclOutput.Counter) out, ImageCache.AUTO, x, y, maxSize, image, threshold, options);
+            return out;
+        }
+        Bitmap bitmap = ImageUtils.binarize(image, threshold, options);
+        BitmapEncoder.auto(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, maxSize, options);
+        options.bufferPool.release(bitmap.data);
+        return out;
+    }
+
+    static <T extends CpclOutput> T image(T out, int x, int y, int maxSize, String filename, Integer threshold, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.file((CpclOutput.Counter) out, ImageCache.AUTO, x, y, maxSize, filename, threshold, options);
+            return out;
+        }
+        Bitmap bitmap = ImageUtils.readBitmap(filename, threshold, options);
+        BitmapEncoder.auto(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, maxSize, options);
+        options.bufferPool.release(bitmap.data);
+        return out;
+    }
+
+    /**
+     * 图片指令CG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     * CG w h x y data
+     * stride等于宽度字节数时不复制
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param bitmap  位图
+     * @param off     位图起始位置
+     * @param stride  位图每行间隔，单位：字节，不小于(w + 7) / 8
+     * @param options 图片指令选项，null使用默认选项
+     * @return CPCL
+     */
+    public static byte[] bitmapCG(int w, int h, int x, int y, byte[] bitmap, int off, int stride, ImageOptions options) {
+        return bitmapCG(new CpclOutput.Heap(), x, y, new Bitmap(bitmap, off, stride, w, h), options).toByteArray();
+    }
+
+    /**
+     * 图片指令CG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     * CG w h x y data
+     * 堆内缓冲区不复制，直接缓冲区复制一次
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param bitmap  位图，从position开始，不改变position
+     * @param stride  位图每行间隔，单位：字节，不小于(w + 7) / 8
+     * @param options 图片指令选项，null使用默认选项
+     * @return CPCL
+     */
+    public static byte[] bitmapCG(int w, int h, int x, int y, ByteBuffer bitmap, int stride, ImageOptions options) {
+        return bitmapCG(new CpclOutput.Heap(), x, y, Bitmap.of(bitmap, stride, w, h), options).toByteArray();
+    }
+
+    /**
+     * 图片指令CG，1位TYPE_BYTE_BINARY图片直接使用其位图，不做二值化
+     * CG w h x y data
+     *
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param image   1位TYPE_BYTE_BINARY图片
+     * @param options 图片指令选项，null使用默认选项
+     * @return CPCL
+     */
+    public static byte[] bitmapCG(int x, int y, BufferedImage image, ImageOptions options) {
+        return bitmapCG(new CpclOutput.Heap(), x, y, Bitmap.of(image), options).toByteArray();
+    }
+
+    static <T extends CpclOutput> T bitmapCG(T out, int x, int y, Bitmap bitmap, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.bitmap((CpclOutput.Counter) out, ImageCache.CG, x, y, 0, bitmap, options == null ? ImageOptions.DEFAULT : options);
+            return out;
+        }
+        BitmapEncoder.cg(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, options == null ? ImageOptions.DEFAULT : options);
+        return out;
+    }
+
+    /**
+     * 图片指令EG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     * EG w h x y data
+     * stride等于宽度字节数时不复制
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param bitmap  位图
+     * @param off     位图起始位置
+     * @param stride  位图每行间隔，单位：字节，不小于(w + 7) / 8
+     * @param options 图片指令选项，null使用默认选项
+     * @return CPCL
+     */
+    public static byte[] bitmapEG(int w, int h, int x, int y, byte[] bitmap, int off, int stride, ImageOptions options) {
+        return bitmapEG(new CpclOutput.Heap(), x, y, new Bitmap(bitmap, off, stride, w, h), options).toByteArray();
+    }
+
+    /**
+     * 图片指令EG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     * EG w h x y data
+     * 堆内缓冲区不复制，直接缓冲区复制一次
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param bitmap  位图，从position开始，不改变position
+     * @param stride  位图每行间隔，单位：字节，不小于(w + 7) / 8
+     * @param options 图片指令选项，null使用默认选项
+     * @return CPCL
+     */
+    public static byte[] bitmapEG(int w, int h, int x, int y, ByteBuffer bitmap, int stride, ImageOptions options) {
+        return bitmapEG(new CpclOutput.Heap(), x, y, Bitmap.of(bitmap, stride, w, h), options).toByteArray();
+    }
+
+    /**
+     * 图片指令EG，1位TYPE_BYTE_BINARY图片直接使用其位图，不做二值化
+     * EG w h x y data
+     *
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param image   1位TYPE_BYTE_BINARY图片
+     * @param options 图片指令选项，null使用默认选项
+     * @return CPCL
+     */
+    public static byte[] bitmapEG(int x, int y, BufferedImage image, ImageOptions options) {
+        return bitmapEG(new CpclOutput.Heap(), x, y, Bitmap.of(image), options).toByteArray();
+    }
+
+    static <T extends CpclOutput> T bitmapEG(T out, int x, int y, Bitmap bitmap, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.bitmap((CpclOutput.Counter) out, ImageCache.EG, x, y, 0, bitmap, options == null ? ImageOptions.DEFAULT : options);
+            return out;
+        }
+        BitmapEncoder.eg(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, options == null ? ImageOptions.DEFAULT : options);
+        return out;
+    }
+
+    /**
+     * 图片指令GG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     * GG w h x y size lzo(CG data)
+     * stride等于宽度字节数时不复制
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param maxSize 压缩数据最大值
+     * @param bitmap  位图
+     * @param off     位图起始位置
+     * @param stride  位图每行间隔，单位：字节，不小于(w + 7) / 8
+     * @param options 图片指令选项，null使用默认选项
+     * @return CPCL
+     */
+    public static byte[] bitmapGG(int w, int h, int x, int y, int maxSize, byte[] bitmap, int off, int stride, ImageOptions options) {
+        return bitmapGG(new CpclOutput.Heap(), x, y, maxSize, new Bitmap(bitmap, off, stride, w, h), options).toByteArray();
+    }
+
+    /**
+     * 图片指令GG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     * GG w h x y size lzo(CG data)
+     * 堆内缓冲区不复制，直接缓冲区复制一次
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param maxSize 压缩数据最大值
+     * @param bitmap  位图，从position开始，不改变position
+     * @param stride  位图每行间隔，单位：字节，不小于(w + 7) / 8
+     * @param options 图片指令选项，null使用默认选项
+     * @return CPCL
+     */
+    public static byte[] bitmapGG(int w, int h, int x, int y, int maxSize, ByteBuffer bitmap, int stride, ImageOptions options) {
+        return bitmapGG(new CpclOutput.Heap(), x, y, maxSize, Bitmap.of(bitmap, stride, w, h), options).toByteArray();
+    }
+
+    /**
+     * 图片指令GG，1位TYPE_BYTE_BINARY图片直接使用其位图，不做二值化
+     * GG w h x y size lzo(CG data)
+     *
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param maxSize 压缩数据最大值
+     * @param image   1位TYPE_BYTE_BINARY图片
+     * @param options 图片指令选项，null使用默认选项
+     * @return CPCL
+     */
+    public static byte[] bitmapGG(int x, int y, int maxSize, BufferedImage image, ImageOptions options) {
+        return bitmapGG(new CpclOutput.Heap(), x, y, maxSize, Bitmap.of(image), options).toByteArray();
+    }
+
+    static <T extends CpclOutput> T bitmapGG(T out, int x, int y, int maxSize, Bitmap bitmap, ImageOptions options) {
+        if (out instanceof CpclOutput.Counter) {
+            ImageSizer.bitmap((CpclOutput.Counter) out, ImageCache.GG, x, y, maxSize, bitmap, options == null ? ImageOptions.DEFAULT : options);
+            return out;
+        }
+        BitmapEncoder.gg(out, bitmap.data, bitmap.off, bitmap.stride, bitmap.byteWidth, bitmap.height, x, y, maxSize, options == null ? ImageOptions.DEFAULT : options);
+        return out;
     }
 
     /**
@@ -517,7 +982,12 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] form() {
-        return toBytes("FORM" + LINE);
+        return form(new CpclOutput.Heap(16)).toByteArray();
+    }
+
+    static <T extends CpclOutput> T form(T out) {
+        out.writeAscii("FORM").write(LINE_BYTES);
+        return out;
     }
 
     /**
@@ -526,7 +996,12 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] print() {
-        return toBytes("PRINT" + LINE);
+        return print(new CpclOutput.Heap(16)).toByteArray();
+    }
+
+    static <T extends CpclOutput> T print(T out) {
+        out.writeAscii("PRINT").write(LINE_BYTES);
+        return out;
     }
 
     /**
@@ -535,23 +1010,15 @@ public class CPCL {
      * @return CPCL
      */
     public static byte[] formPrint() {
-        return merge(form(), print());
+        return formPrint(new CpclOutput.Heap(16)).toByteArray();
     }
 
-    static byte[] toBytes(String s) {
-        try {
-            return s.getBytes("GBK");
-        } catch (UnsupportedEncodingException e) {
-            return s.getBytes();
-        }
+    static <T extends CpclOutput> T formPrint(T out) {
+        return print(form(out));
     }
 
-    private static byte[] merge(byte[]... bytes) {
-        if (bytes == null) return null;
-        if (bytes.length == 1) return bytes[0];
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        for (byte[] aByte : bytes) if (aByte != null) baos.write(aByte, 0, aByte.length);
-        return baos.toByteArray();
+    static byte[] toBytes(String s) {
+        return s.getBytes(CpclOutput.CHARSET);
     }
 
 
@@ -562,6 +1029,17 @@ public class CPCL {
      */
     static class ImageUtils {
 
+        /**
+         * 灰度值即sRGB值的调色板
+         */
+        private static final IndexColorModel GRAY_PALETTE;
+
+        static {
+            byte[] grey = new byte[256];
+            for (int v = 0; v < 256; v++) grey[v] = (byte) v;
+            GRAY_PALETTE = new IndexColorModel(8, 256, grey, grey, grey);
+        }
+
         public static int byteWidth(int width) {
             return (width + 7) / 8;
         }
@@ -574,51 +1052,61 @@ public class CPCL {
          * @return bitmap
          */
         public static byte[] image2Bitmap(BufferedImage image, Integer threshold) {
-            // BufferedImage图片转为矩阵
-            int w = image.getWidth();
-            int h = image.getHeight();
-            int byteWidth = byteWidth(w);
-
-            int[] pixels = new int[w * h];
-            image.getRGB(0, 0, w, h, pixels, 0, w);
-
-            byte[] bitmap = new byte[byteWidth * h];
-            for (int y = 0; y < h; y++) {
-                for (int bx = 0; bx < byteWidth; bx++) {
-                    int bin = 0;
-                    for (int k = 0; k < 8; k++) {
-                        int x = bx * 8 + k;
-
-                        bin = bin << 1;
-                        if (x < w) { // 未超出边界
-                            int rgb = pixels[y * w + x];
-                            bin += rgb2Bin(rgb, threshold);
-                        }
-                    }
-
-                    //CG Data
-                    bitmap[y * byteWidth + bx] = (byte) bin;
-                }
-            }
+            return image2Bitmap(image, threshold, ImageOptions.DEFAULT);
+        }
+
+        /**
+         * image -> bitmap(CG Data)
+         *
+         * @param image       图片
+         * @param threshold   黑白阈值，取值范围0-255，默认128
+         * @param parallelism 并行度，大图按行分段在ForkJoinPool.commonPool()中并行处理
+         * @return bitmap
+         */
+        public static byte[] image2Bitmap(BufferedImage image, Integer threshold, int parallelism) {
+            return image2Bitmap(image, threshold, ImageOptions.newOptions().parallelism(parallelism));
+        }
+
+        /**
+         * image -> bitmap(CG Data)
+         *
+         * @param image     图片
+         * @param threshold 黑白阈值，取值范围0-255，默认128
+         * @param options   图片指令选项
+         * @return bitmap
+         */
+        public static byte[] image2Bitmap(BufferedImage image, Integer threshold, ImageOptions options) {
+            ImageBinarizer binarizer = ImageBinarizer.of(image, threshold == null ? DEFAULT_THRESHOLD : threshold, options);
+            byte[] bitmap = new byte[binarizer.byteWidth * binarizer.height];
+            binarizer.binarize(bitmap, 0, binarizer.byteWidth, options);
             return bitmap;
         }
 
         /**
-         * 依次检查R、G、B是否超过阈值
-         * 超过视为白色0，否则黑色1
+         * image -> bitmap(CG Data)，位图数据取自options的缓冲区池，用完后归还
+         *
+         * @param image     图片
+         * @param threshold 黑白阈值，取值范围0-255，默认128
+         * @param options   图片指令选项
+         * @return 位图
+         */
+        static Bitmap binarize(BufferedImage image, Integer threshold, ImageOptions options) {
+            ImageBinarizer binarizer = ImageBinarizer.of(image, threshold == null ? DEFAULT_THRESHOLD : threshold, options);
+            byte[] data = options.bufferPool.bytes(binarizer.byteWidth * binarizer.height);
+            binarizer.binarize(data, 0, binarizer.byteWidth, options);
+            return new Bitmap(data, 0, binarizer.byteWidth, binarizer.width, binarizer.height);
+        }
+
+        /**
+         * 读取图片文件并二值化，大图分段解码
          *
-         * @param rgb       rgb
+         * @param filename  文件路径
          * @param threshold 黑白阈值，取值范围0-255，默认128
-         * @return 0 or 1
+         * @param options   图片指令选项
+         * @return 位图
          */
-        private static int rgb2Bin(int rgb, Integer threshold) {
-            int r = (rgb & 0x00ff0000) >> 16;
-            int g = (rgb & 0x0000ff00) >> 8;
-            int b = (rgb & 0x000000ff);
-
-            //rgb2Grey
-            int grey = (r * 38 + g * 75 + b * 15) >> 7;
-            return grey > (threshold == null ? DEFAULT_THRESHOLD : threshold) ? 0 : 1;
+        static Bitmap readBitmap(String filename, Integer threshold, ImageOptions options) {
+            return BandedImageReader.read(filename, threshold == null ? DEFAULT_THRESHOLD : threshold, options);
         }
 
         /**
@@ -629,9 +1117,9 @@ public class CPCL {
          */
         public static BufferedImage readImage(String filename) {
             try {
-                BufferedImage image = ImageIO.read(new File(filename));
-                // 非RGB色彩，转换为RGB色彩，否则会有问题，比如灰度图取RGB色值进行计算就会产生偏差
-                if (image.getType() != BufferedImage.TYPE_INT_RGB || image.getType() != BufferedImage.TYPE_INT_ARGB) {
+                BufferedImage image = decoded(ImageIO.read(new File(filename)));
+                // 无法直接读取或带透明度的图片转换为RGB色彩，透明部分叠加在黑色上
+                if (needsRgbCopy(image)) {
                     BufferedImage bimage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
                     Graphics2D bGr = bimage.createGraphics();
                     bGr.drawImage(image, 0, 0, null);
@@ -644,6 +1132,37 @@ public class CPCL {
             }
         }
 
+        /**
+         * 解码得到的8位灰度图改用灰度调色板，共享同一Raster
+         * 绘制到RGB时灰度值不经过颜色模型的线性灰度到sRGB转换，改用调色板后直接二值化的结果与转换后一致
+         *
+         * @param image 解码得到的图片
+         * @return 8位灰度图返回调色板图片，否则返回image
+         */
+        static BufferedImage decoded(BufferedImage image) {
+            if (!isGray(image) || image.getColorModel().hasAlpha()) return image;
+            WritableRaster raster = image.getRaster();
+            if (raster.getTransferType() != DataBuffer.TYPE_BYTE || raster.getSampleModel().getSampleSize(0) != 8) return image;
+            return new BufferedImage(GRAY_PALETTE, raster, false, null);
+        }
+
+        /**
+         * 读取的图片是否需要转换为TYPE_INT_RGB
+         * RGB、索引色等不透明图片直接二值化，结果与转换后一致，省去整图RGB副本；
+         * 带透明度的图片（含TYPE_INT_ARGB）须转换，透明部分叠加在黑色上；
+         * {@link #decoded(BufferedImage)}未处理的灰度图（如16位）须转换，直接二值化会经过线性灰度到sRGB转换
+         */
+        static boolean needsRgbCopy(BufferedImage image) {
+            if (image.getType() == BufferedImage.TYPE_INT_RGB) return false;
+            return image.getColorModel().hasAlpha() || isGray(image) || !ImageBinarizer.isNative(image);
+        }
+
+        private static boolean isGray(BufferedImage image) {
+            ColorModel cm = image.getColorModel();
+            return cm instanceof ComponentColorModel && cm.getNumColorComponents() == 1
+                    && cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+        }
+
     }
 
 }
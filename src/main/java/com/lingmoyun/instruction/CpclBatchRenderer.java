@@ -0,0 +1,171 @@
+package com.lingmoyun.instruction;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 批量渲染
+ * <p>
+ * 多个标签在线程池中并行编码，按提交顺序依次写入同一输出。
+ * 同时在途（编码中或等待写出）的标签数不超过窗口大小，大批量任务不会整体驻留内存。
+ * <pre>
+ * CpclBatchRenderer.newRenderer((Order o) -&gt; template.render(o.name, o.trackingNo))
+ *         .window(32)
+ *         .render(orders, socket.getOutputStream());
+ * </pre>
+ *
+ * @param <T> 标签数据类型
+ * @author guoweifeng
+ */
+public class CpclBatchRenderer<T> {
+
+    /**
+     * 创建批量渲染器
+     *
+     * @param renderer 单个标签的渲染函数，返回完整的标签指令（! ... FORM PRINT），须线程安全
+     * @param <T>      标签数据类型
+     * @return CpclBatchRenderer
+     */
+    public static <T> CpclBatchRenderer<T> newRenderer(Function<? super T, byte[]> renderer) {
+        if (renderer == null) throw new NullPointerException("renderer");
+        return new CpclBatchRenderer<>(renderer);
+    }
+
+    private final Function<? super T, byte[]> renderer;
+    private Executor executor;
+    private int window;
+
+    private CpclBatchRenderer(Function<? super T, byte[]> renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * 编码使用的线程池
+     *
+     * @param executor 线程池，null使用{@link ForkJoinPool#commonPool()}
+     * @return CpclBatchRenderer
+     */
+    public CpclBatchRenderer<T> executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * 在途窗口大小，即最多同时编码或等待写出的标签数
+     *
+     * @param window 标签数，默认为CPU核数的2倍
+     * @return CpclBatchRenderer
+     */
+    public CpclBatchRenderer<T> window(int window) {
+        if (window < 1) throw new IllegalArgumentException("window must be >= 1. " + window);
+        this.window = window;
+        return this;
+    }
+
+    /**
+     * 渲染并写入输出流，调用方负责关闭输出流
+     * 写出失败时抛出{@link UncheckedIOException}
+     *
+     * @param specs 标签数据
+     * @param out   输出流
+     * @return 标签数
+     */
+    public long render(Iterable<? extends T> specs, OutputStream out) {
+        return render(specs.iterator(), out);
+    }
+
+    public long render(Stream<? extends T> specs, OutputStream out) {
+        return render(specs.iterator(), out);
+    }
+
+    public long render(Iterator<? extends T> specs, OutputStream out) {
+        long count = render(specs, (Consumer<byte[]>) cpcl -> {
+            try {
+                out.write(cpcl);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count;
+    }
+
+    /**
+     * 渲染并写入Builder，如流式Builder，完成后刷出
+     *
+     * @param specs   标签数据
+     * @param builder Builder
+     * @return 标签数
+     */
+    public long render(Iterable<? extends T> specs, CpclBuilder builder) {
+        return render(specs.iterator(), builder);
+    }
+
+    public long render(Stream<? extends T> specs, CpclBuilder builder) {
+        return render(specs.iterator(), builder);
+    }
+
+    public long render(Iterator<? extends T> specs, CpclBuilder builder) {
+        long count = render(specs, (Consumer<byte[]>) builder::append);
+        builder.flush();
+        return count;
+    }
+
+    /**
+     * 渲染，按提交顺序将每个标签交给sink
+     * 渲染或写出失败时取消其余标签并抛出异常
+     *
+     * @param specs 标签数据
+     * @param sink  在调用线程中按顺序执行
+     * @return 标签数
+     */
+    public long render(Iterator<? extends T> specs, Consumer<byte[]> sink) {
+        Executor executor = this.executor != null ? this.executor : ForkJoinPool.commonPool();
+        int window = this.window > 0 ? this.window : Runtime.getRuntime().availableProcessors() * 2;
+        ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>(window);
+        long count = 0;
+        try {
+            while (specs.hasNext()) {
+                if (inFlight.size() == window) {
+                    sink.accept(join(inFlight.poll()));
+                    count++;
+                }
+                T spec = specs.next();
+                inFlight.add(CompletableFuture.supplyAsync(() -> renderer.apply(spec), executor));
+            }
+            while (!inFlight.isEmpty()) {
+                sink.accept(join(inFlight.poll()));
+                count++;
+            }
+        } finally {
+            for (CompletableFuture<byte[]> future : inFlight) future.cancel(false);
+        }
+        return count;
+    }
+
+    private static byte[] join(CompletableFuture<byte[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+}
@@ -2,7 +2,12 @@ package com.lingmoyun.instruction;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
 
 /**
  * CPCL指令构建器
@@ -17,7 +22,67 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public static CpclBuilder newBuilder() {
-        return new CpclBuilder();
+        return new CpclBuilder(new CpclOutput.Heap());
+    }
+
+    /**
+     * 创建一个流式Builder，指令边生成边写入输出流，不在内存中累积
+     * 调用方负责关闭输出流
+     *
+     * @param out 输出流，如打印机Socket的输出流
+     * @return CpclBuilder
+     */
+    public static CpclBuilder to(OutputStream out) {
+        return to(out, CpclOutput.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 创建一个流式Builder，指令边生成边写入输出流，不在内存中累积
+     * 调用方负责关闭输出流
+     *
+     * @param out        输出流，如打印机Socket的输出流
+     * @param bufferSize 缓冲区大小，单位：字节
+     * @return CpclBuilder
+     */
+    public static CpclBuilder to(OutputStream out, int bufferSize) {
+        return new CpclBuilder(new CpclOutput.Stream(out, bufferSize));
+    }
+
+    /**
+     * 创建一个流式Builder，指令编码进可复用的直接内存缓冲区，写满即写入通道
+     * 调用方负责关闭通道，通道须为阻塞模式
+     *
+     * @param channel 通道，如SocketChannel
+     * @return CpclBuilder
+     */
+    public static CpclBuilder to(WritableByteChannel channel) {
+        return to(channel, CpclOutput.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 创建一个流式Builder，指令编码进可复用的直接内存缓冲区，写满即写入通道
+     * 调用方负责关闭通道，通道须为阻塞模式
+     *
+     * @param channel    通道，如SocketChannel
+     * @param bufferSize 缓冲区大小，单位：字节
+     * @return CpclBuilder
+     */
+    public static CpclBuilder to(WritableByteChannel channel, int bufferSize) {
+        return new CpclBuilder(new CpclOutput.Channel(channel, bufferSize));
+    }
+
+    /**
+     * 创建一个预估Builder，只统计指令字节数，不保存内容，用于发送前估算任务大小和传输时间
+     * 图片指令不编码，CG/EG按尺寸计算，GG按抽样压缩估算，见{@link #estimate()}
+     * <pre>
+     * CpclEstimate estimate = CpclBuilder.sizing().area(0, 203, 1200, 1).imageGG(0, 0, logo).formPrint().estimate();
+     * long millis = estimate.transferMillis(LinkModel.serial(115200));
+     * </pre>
+     *
+     * @return CpclBuilder
+     */
+    public static CpclBuilder sizing() {
+        return new CpclBuilder(new CpclOutput.Counter());
     }
 
     /**
@@ -61,10 +126,27 @@ public class CpclBuilder {
         return createArea(offset, dpi, height, qty).pageWidth(width);
     }
 
-    private ByteArrayOutputStream baos;
+    /**
+     * {@link #reset()}时保留的最大缓冲区大小，单位：字节
+     */
+    public static final int DEFAULT_MAX_RETAINED = 1 << 20;
+
+    private final CpclOutput out;
+    private ImageOptions imageOptions = ImageOptions.DEFAULT;
+
+    private CpclBuilder(CpclOutput out) {
+        this.out = out;
+    }
 
-    private CpclBuilder() {
-        baos = new ByteArrayOutputStream();
+    /**
+     * 设置之后所有图片指令使用的选项
+     *
+     * @param options 图片指令选项，null恢复默认
+     * @return CpclBuilder
+     */
+    public CpclBuilder imageOptions(ImageOptions options) {
+        this.imageOptions = options == null ? ImageOptions.DEFAULT : options;
+        return this;
     }
 
     /**
@@ -74,7 +156,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder cut(int h) {
-        return append(CPCL.cut(h));
+        CPCL.cut(out, h, -1);
+        return this;
     }
 
     /**
@@ -85,7 +168,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder cut(int h, int time) {
-        return append(CPCL.cut(h, time));
+        CPCL.cut(out, h, time);
+        return this;
     }
 
     /**
@@ -97,7 +181,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder area(int offset, int height, int qty) {
-        return append(CPCL.area(offset, height, qty));
+        CPCL.area(out, offset, 203, height, qty);
+        return this;
     }
 
     /**
@@ -110,19 +195,23 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder area(int offset, int dpi, int height, int qty) {
-        return append(CPCL.area(offset, dpi, height, qty));
+        CPCL.area(out, offset, dpi, height, qty);
+        return this;
     }
 
     public CpclBuilder pageWidth(int width) {
-        return append(CPCL.pageWidth(width));
+        CPCL.pageWidth(out, width);
+        return this;
     }
 
     public CpclBuilder taskId(String taskId) {
-        return append(CPCL.taskId(taskId));
+        CPCL.taskId(out, taskId);
+        return this;
     }
 
     public CpclBuilder density(int density) {
-        return append(CPCL.density(density));
+        CPCL.density(out, density);
+        return this;
     }
 
     /**
@@ -136,7 +225,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder text(int font, int fontSize, int x, int y, String data) {
-        return append(CPCL.text(font, fontSize, x, y, data));
+        CPCL.text(out, 0, font, fontSize, x, y, data);
+        return this;
     }
 
     /**
@@ -151,7 +241,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder text(int degree, int font, int fontSize, int x, int y, String data) {
-        return append(CPCL.text(degree, font, fontSize, x, y, data));
+        CPCL.text(out, degree, font, fontSize, x, y, data);
+        return this;
     }
 
     /**
@@ -163,7 +254,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder line(Point fromPoint, Point toPoint, int width) {
-        return append(CPCL.line(fromPoint, toPoint, width));
+        CPCL.line(out, fromPoint.x, fromPoint.y, toPoint.x, toPoint.y, width);
+        return this;
     }
 
     /**
@@ -177,7 +269,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder line(int x0, int y0, int x1, int y1, int width) {
-        return append(CPCL.line(x0, y0, x1, y1, width));
+        CPCL.line(out, x0, y0, x1, y1, width);
+        return this;
     }
 
     /**
@@ -197,7 +290,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder barCode(int width, int ratio, int height, int x, int y, String data) {
-        return append(CPCL.barCode(width, ratio, height, x, y, data));
+        CPCL.barCode(out, width, ratio, height, x, y, data);
+        return this;
     }
 
     /**
@@ -209,7 +303,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder qrCode(int x, int y, String data) {
-        return append(CPCL.qrCode(x, y, data));
+        CPCL.qrCode(out, CPCL.QR_CODE_ECC_M, x, y, data);
+        return this;
     }
 
     /**
@@ -226,7 +321,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder qrCode(String ecc, int x, int y, String data) {
-        return append(CPCL.qrCode(ecc, x, y, data));
+        CPCL.qrCode(out, ecc, x, y, data);
+        return this;
     }
 
     /**
@@ -239,7 +335,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageCG(int x, int y, String filename) {
-        return append(CPCL.imageCG(x, y, filename));
+        CPCL.imageCG(out, x, y, filename, null, imageOptions);
+        return this;
     }
 
     /**
@@ -253,7 +350,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageCG(int x, int y, String filename, Integer threshold) {
-        return append(CPCL.imageCG(x, y, filename, threshold));
+        CPCL.imageCG(out, x, y, filename, threshold, imageOptions);
+        return this;
     }
 
     /**
@@ -266,7 +364,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageCG(int x, int y, BufferedImage image) {
-        return append(CPCL.imageCG(x, y, image));
+        CPCL.imageCG(out, x, y, image, null, imageOptions);
+        return this;
     }
 
     /**
@@ -280,7 +379,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageCG(int x, int y, BufferedImage image, Integer threshold) {
-        return append(CPCL.imageCG(x, y, image, threshold));
+        CPCL.imageCG(out, x, y, image, threshold, imageOptions);
+        return this;
     }
 
     /**
@@ -293,7 +393,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageEG(int x, int y, String filename) {
-        return append(CPCL.imageEG(x, y, filename));
+        CPCL.imageEG(out, x, y, filename, null, imageOptions);
+        return this;
     }
 
     /**
@@ -307,7 +408,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageEG(int x, int y, String filename, Integer threshold) {
-        return append(CPCL.imageEG(x, y, filename, threshold));
+        CPCL.imageEG(out, x, y, filename, threshold, imageOptions);
+        return this;
     }
 
     /**
@@ -320,7 +422,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageEG(int x, int y, BufferedImage image) {
-        return append(CPCL.imageEG(x, y, image));
+        CPCL.imageEG(out, x, y, image, null, imageOptions);
+        return this;
     }
 
     /**
@@ -334,7 +437,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageEG(int x, int y, BufferedImage image, Integer threshold) {
-        return append(CPCL.imageEG(x, y, image, threshold));
+        CPCL.imageEG(out, x, y, image, threshold, imageOptions);
+        return this;
     }
 
     /**
@@ -347,7 +451,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageGG(int x, int y, String filename) {
-        return append(CPCL.imageGG(x, y, filename));
+        CPCL.imageGG(out, x, y, CPCL.DEFAULT_GG_MAX_SIZE, filename, null, imageOptions);
+        return this;
     }
 
     /**
@@ -361,7 +466,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageGG(int x, int y, String filename, Integer threshold) {
-        return append(CPCL.imageGG(x, y, filename, threshold));
+        CPCL.imageGG(out, x, y, CPCL.DEFAULT_GG_MAX_SIZE, filename, threshold, imageOptions);
+        return this;
     }
 
     /**
@@ -375,7 +481,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageGG(int x, int y, int maxSize, String filename) {
-        return append(CPCL.imageGG(x, y, maxSize, filename));
+        CPCL.imageGG(out, x, y, maxSize, filename, null, imageOptions);
+        return this;
     }
 
     /**
@@ -390,7 +497,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageGG(int x, int y, int maxSize, String filename, Integer threshold) {
-        return append(CPCL.imageGG(x, y, maxSize, filename, threshold));
+        CPCL.imageGG(out, x, y, maxSize, filename, threshold, imageOptions);
+        return this;
     }
 
     /**
@@ -403,7 +511,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageGG(int x, int y, BufferedImage image) {
-        return append(CPCL.imageGG(x, y, image));
+        CPCL.imageGG(out, x, y, CPCL.DEFAULT_GG_MAX_SIZE, image, null, imageOptions);
+        return this;
     }
 
     /**
@@ -417,7 +526,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageGG(int x, int y, BufferedImage image, Integer threshold) {
-        return append(CPCL.imageGG(x, y, image, threshold));
+        CPCL.imageGG(out, x, y, CPCL.DEFAULT_GG_MAX_SIZE, image, threshold, imageOptions);
+        return this;
     }
 
     /**
@@ -431,7 +541,8 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageGG(int x, int y, int maxSize, BufferedImage image) {
-        return append(CPCL.imageGG(x, y, maxSize, image));
+        CPCL.imageGG(out, x, y, maxSize, image, null, imageOptions);
+        return this;
     }
 
     /**
@@ -446,23 +557,295 @@ public class CpclBuilder {
      * @return CpclBuilder
      */
     public CpclBuilder imageGG(int x, int y, int maxSize, BufferedImage image, Integer threshold) {
-        return append(CPCL.imageGG(x, y, maxSize, image, threshold));
+        CPCL.imageGG(out, x, y, maxSize, image, threshold, imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令，按图片指令选项中的链路模型逐段选择CG、EG或GG
+     *
+     * @param x     坐标x
+     * @param y     坐标y
+     * @param image 图片
+     * @return CpclBuilder
+     * @see ImageOptions#link(LinkModel)
+     */
+    public CpclBuilder image(int x, int y, BufferedImage image) {
+        CPCL.image(out, x, y, CPCL.DEFAULT_GG_MAX_SIZE, image, null, imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令，按图片指令选项中的链路模型逐段选择CG、EG或GG
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param image     图片
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @return CpclBuilder
+     * @see ImageOptions#link(LinkModel)
+     */
+    public CpclBuilder image(int x, int y, BufferedImage image, Integer threshold) {
+        CPCL.image(out, x, y, CPCL.DEFAULT_GG_MAX_SIZE, image, threshold, imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令，按图片指令选项中的链路模型逐段选择CG、EG或GG
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param maxSize   GG压缩数据最大值
+     * @param image     图片
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @return CpclBuilder
+     * @see ImageOptions#link(LinkModel)
+     */
+    public CpclBuilder image(int x, int y, int maxSize, BufferedImage image, Integer threshold) {
+        CPCL.image(out, x, y, maxSize, image, threshold, imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令，按图片指令选项中的链路模型逐段选择CG、EG或GG
+     *
+     * @param x        坐标x
+     * @param y        坐标y
+     * @param filename 文件路径
+     * @return CpclBuilder
+     * @see ImageOptions#link(LinkModel)
+     */
+    public CpclBuilder image(int x, int y, String filename) {
+        CPCL.image(out, x, y, CPCL.DEFAULT_GG_MAX_SIZE, filename, null, imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令，按图片指令选项中的链路模型逐段选择CG、EG或GG
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param filename  文件路径
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @return CpclBuilder
+     * @see ImageOptions#link(LinkModel)
+     */
+    public CpclBuilder image(int x, int y, String filename, Integer threshold) {
+        CPCL.image(out, x, y, CPCL.DEFAULT_GG_MAX_SIZE, filename, threshold, imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令，按图片指令选项中的链路模型逐段选择CG、EG或GG
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param maxSize   GG压缩数据最大值
+     * @param filename  文件路径
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @return CpclBuilder
+     * @see ImageOptions#link(LinkModel)
+     */
+    public CpclBuilder image(int x, int y, int maxSize, String filename, Integer threshold) {
+        CPCL.image(out, x, y, maxSize, filename, threshold, imageOptions);
+        return this;
+    }
+
+    /**
+     * 差量图片指令，写入底图和该页变化区域的指令
+     * 坐标、阈值和图片指令选项取自delta
+     *
+     * @param delta 差量图片指令
+     * @param image 图片，尺寸须与底图一致
+     * @return CpclBuilder
+     */
+    public CpclBuilder image(CpclDelta delta, BufferedImage image) {
+        delta.writeTo(out, image);
+        return this;
+    }
+
+    /**
+     * 图片指令CG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param bitmap  位图
+     * @param off     位图起始位置
+     * @param stride  位图每行间隔，单位：字节
+     * @return CpclBuilder
+     */
+    public CpclBuilder bitmapCG(int w, int h, int x, int y, byte[] bitmap, int off, int stride) {
+        CPCL.bitmapCG(out, x, y, new Bitmap(bitmap, off, stride, w, h), imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令CG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param bitmap  位图，从position开始，不改变position
+     * @param stride  位图每行间隔，单位：字节
+     * @return CpclBuilder
+     */
+    public CpclBuilder bitmapCG(int w, int h, int x, int y, ByteBuffer bitmap, int stride) {
+        CPCL.bitmapCG(out, x, y, Bitmap.of(bitmap, stride, w, h), imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令CG，1位TYPE_BYTE_BINARY图片直接使用其位图，不做二值化
+     *
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param image   1位TYPE_BYTE_BINARY图片
+     * @return CpclBuilder
+     */
+    public CpclBuilder bitmapCG(int x, int y, BufferedImage image) {
+        CPCL.bitmapCG(out, x, y, Bitmap.of(image), imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令EG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param bitmap  位图
+     * @param off     位图起始位置
+     * @param stride  位图每行间隔，单位：字节
+     * @return CpclBuilder
+     */
+    public CpclBuilder bitmapEG(int w, int h, int x, int y, byte[] bitmap, int off, int stride) {
+        CPCL.bitmapEG(out, x, y, new Bitmap(bitmap, off, stride, w, h), imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令EG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param bitmap  位图，从position开始，不改变position
+     * @param stride  位图每行间隔，单位：字节
+     * @return CpclBuilder
+     */
+    public CpclBuilder bitmapEG(int w, int h, int x, int y, ByteBuffer bitmap, int stride) {
+        CPCL.bitmapEG(out, x, y, Bitmap.of(bitmap, stride, w, h), imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令EG，1位TYPE_BYTE_BINARY图片直接使用其位图，不做二值化
+     *
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param image   1位TYPE_BYTE_BINARY图片
+     * @return CpclBuilder
+     */
+    public CpclBuilder bitmapEG(int x, int y, BufferedImage image) {
+        CPCL.bitmapEG(out, x, y, Bitmap.of(image), imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令GG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param maxSize 压缩数据最大值
+     * @param bitmap  位图
+     * @param off     位图起始位置
+     * @param stride  位图每行间隔，单位：字节
+     * @return CpclBuilder
+     */
+    public CpclBuilder bitmapGG(int w, int h, int x, int y, int maxSize, byte[] bitmap, int off, int stride) {
+        CPCL.bitmapGG(out, x, y, maxSize, new Bitmap(bitmap, off, stride, w, h), imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令GG，位图已按1位/像素打包（高位在前，1为黑色），不做二值化
+     *
+     * @param w       宽，单位：px，每行末尾不足8位的部分应为0
+     * @param h       高，单位：px
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param maxSize 压缩数据最大值
+     * @param bitmap  位图，从position开始，不改变position
+     * @param stride  位图每行间隔，单位：字节
+     * @return CpclBuilder
+     */
+    public CpclBuilder bitmapGG(int w, int h, int x, int y, int maxSize, ByteBuffer bitmap, int stride) {
+        CPCL.bitmapGG(out, x, y, maxSize, Bitmap.of(bitmap, stride, w, h), imageOptions);
+        return this;
+    }
+
+    /**
+     * 图片指令GG，1位TYPE_BYTE_BINARY图片直接使用其位图，不做二值化
+     *
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param maxSize 压缩数据最大值
+     * @param image   1位TYPE_BYTE_BINARY图片
+     * @return CpclBuilder
+     */
+    public CpclBuilder bitmapGG(int x, int y, int maxSize, BufferedImage image) {
+        CPCL.bitmapGG(out, x, y, maxSize, Bitmap.of(image), imageOptions);
+        return this;
     }
 
     public CpclBuilder form() {
-        return append(CPCL.form());
+        CPCL.form(out);
+        return this;
     }
 
     public CpclBuilder print() {
-        return append(CPCL.print());
+        CPCL.print(out);
+        return this;
     }
 
     public CpclBuilder formPrint() {
-        return append(CPCL.formPrint());
+        CPCL.formPrint(out);
+        return this;
+    }
+
+    /**
+     * 模板
+     *
+     * @param template 模板
+     * @param values   变量值，按{@link CpclTemplate#names()}顺序
+     * @return CpclBuilder
+     */
+    public CpclBuilder template(CpclTemplate template, String... values) {
+        template.writeTo(out, values);
+        return this;
+    }
+
+    /**
+     * 模板
+     *
+     * @param template 模板
+     * @param values   变量名 -&gt; 变量值
+     * @return CpclBuilder
+     */
+    public CpclBuilder template(CpclTemplate template, Map<String, String> values) {
+        return template(template, template.toArray(values));
     }
 
     public CpclBuilder append(String str) {
-        return append(CPCL.toBytes(str));
+        out.writeText(str);
+        return this;
     }
 
     public CpclBuilder appendln(String str) {
@@ -470,17 +853,101 @@ public class CpclBuilder {
     }
 
     public CpclBuilder append(byte[] bytes) {
-        baos.write(bytes, 0, bytes.length);
+        out.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    /**
+     * 将缓冲区中的指令写出，流式Builder有效
+     * 写出失败时抛出{@link java.io.UncheckedIOException}
+     *
+     * @return CpclBuilder
+     */
+    public CpclBuilder flush() {
+        out.flush();
         return this;
     }
 
+    /**
+     * 是否为流式Builder
+     *
+     * @return 流式Builder返回true
+     */
+    public boolean isStreaming() {
+        return out instanceof CpclOutput.Stream || out instanceof CpclOutput.Channel;
+    }
+
+    /**
+     * 预估任务大小，预估Builder及内存Builder有效，内存Builder返回准确值
+     *
+     * @return CpclEstimate
+     */
+    public CpclEstimate estimate() {
+        if (out instanceof CpclOutput.Counter) {
+            CpclOutput.Counter counter = (CpclOutput.Counter) out;
+            return new CpclEstimate(counter.size(), counter.estimated(), counter.decompressed());
+        }
+        return new CpclEstimate(heap().size(), 0, 0);
+    }
+
     /**
      * 构建CPCL
+     * 流式Builder的指令已写入输出，请使用{@link #flush()}
      *
      * @return CPCL
      */
     public byte[] build() {
-        return baos.toByteArray();
+        return heap().toByteArray();
+    }
+
+    /**
+     * 已构建的指令长度，单位：字节
+     *
+     * @return 字节数
+     */
+    public int size() {
+        return heap().size();
+    }
+
+    /**
+     * 将已构建的指令写入输出流，不复制，与{@link #build()}相比不产生新数组
+     * 调用方负责刷出和关闭输出流
+     *
+     * @param stream 输出流
+     * @return CpclBuilder
+     */
+    public CpclBuilder writeTo(OutputStream stream) {
+        try {
+            heap().writeTo(stream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    /**
+     * 清空已构建的指令，复用Builder及其缓冲区构建下一个任务，图片指令选项保持不变
+     * 缓冲区超过{@link #DEFAULT_MAX_RETAINED}时释放
+     * <pre>
+     * CpclBuilder builder = BUILDER.get(); // ThreadLocal
+     * builder.reset().area(0, 203, 600, 1).text(...).formPrint().writeTo(socketOut);
+     * </pre>
+     *
+     * @return CpclBuilder
+     */
+    public CpclBuilder reset() {
+        heap().reset(DEFAULT_MAX_RETAINED);
+        return this;
+    }
+
+    private CpclOutput.Heap heap() {
+        if (out instanceof CpclOutput.Counter) {
+            throw new IllegalStateException("sizing builder has no content, use estimate() instead.");
+        }
+        if (isStreaming()) {
+            throw new IllegalStateException("streaming builder has no buffered content, use flush() instead.");
+        }
+        return (CpclOutput.Heap) out;
     }
 
 }
@@ -0,0 +1,319 @@
+package com.lingmoyun.instruction;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 差量图片指令
+ * <p>
+ * 连续打印只有局部不同的整页图片（序列号、时间戳、逐件条码等）时，每页与底图的位图逐字节比较，
+ * 找出变化的矩形区域（按字节列、行）。底图去掉变化区域后只编码一次，每页只二值化、编码变化区域。
+ * <p>
+ * CPCL图片指令按叠加方式绘制（只画黑点，不清除白点），每张标签从空白页开始，因此：
+ * <ul>
+ * <li>变化区域在底图中留白，由每页补画该区域的完整内容；区域只增不减，出现新的变化区域时重新编码底图</li>
+ * <li>每张标签仍须发送底图指令，节省的是每页的压缩耗时，传输字节数与整页GG相当</li>
+ * <li>变化区域超过图片一半时退化为整页编码</li>
+ * </ul>
+ * 线程安全，可在多个线程间共享。
+ * <pre>
+ * CpclDelta delta = CpclDelta.newDelta(0, 0, background, null, options);
+ * for (BufferedImage page : pages) {
+ *     byte[] cpcl = CpclBuilder.createArea(0, 203, 1200, 1).image(delta, page).formPrint().build();
+ * }
+ * </pre>
+ *
+ * @author guoweifeng
+ */
+public final class CpclDelta {
+
+    /**
+     * 区域合并阈值，单位：字节
+     * 两个变化区域合并后增加的面积不超过该值时合并为一个区域，减少指令数量
+     */
+    private static final int GAP_BYTES = 64;
+
+    /**
+     * 创建差量图片指令
+     *
+     * @param x    坐标x
+     * @param y    坐标y
+     * @param base 底图，后续每页尺寸须与其一致
+     * @return CpclDelta
+     */
+    public static CpclDelta newDelta(int x, int y, BufferedImage base) {
+        return newDelta(x, y, CPCL.DEFAULT_GG_MAX_SIZE, base, null, null);
+    }
+
+    /**
+     * 创建差量图片指令
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param base      底图，后续每页尺寸须与其一致
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @param options   图片指令选项，null使用默认选项
+     * @return CpclDelta
+     */
+    public static CpclDelta newDelta(int x, int y, BufferedImage base, Integer threshold, ImageOptions options) {
+        return newDelta(x, y, CPCL.DEFAULT_GG_MAX_SIZE, base, threshold, options);
+    }
+
+    /**
+     * 创建差量图片指令
+     *
+     * @param x         坐标x
+     * @param y         坐标y
+     * @param maxSize   GG压缩数据最大值
+     * @param base      底图，后续每页尺寸须与其一致
+     * @param threshold 黑白阈值，取值范围0-255，默认128
+     * @param options   图片指令选项，null使用默认选项
+     * @return CpclDelta
+     */
+    public static CpclDelta newDelta(int x, int y, int maxSize, BufferedImage base, Integer threshold, ImageOptions options) {
+        if (base == null) throw new NullPointerException("base");
+        return new CpclDelta(x, y, maxSize, base, threshold, options == null ? ImageOptions.DEFAULT : options);
+    }
+
+    private final int x;
+    private final int y;
+    private final int maxSize;
+    private final Integer threshold;
+    private final ImageOptions options;
+    private final int width;
+    private final int height;
+    private final int byteWidth;
+    private final byte[] base;
+    private volatile State state;
+
+    private CpclDelta(int x, int y, int maxSize, BufferedImage base, Integer threshold, ImageOptions options) {
+        this.x = x;
+        this.y = y;
+        this.maxSize = maxSize;
+        this.threshold = threshold;
+        this.options = options;
+        this.width = base.getWidth();
+        this.height = base.getHeight();
+        this.byteWidth = CPCL.ImageUtils.byteWidth(width);
+        this.base = CPCL.ImageUtils.image2Bitmap(base, threshold, options);
+        this.state = state(new int[0][]);
+    }
+
+    /**
+     * 与底图比较，编码一页
+     *
+     * @param image 图片，尺寸须与底图一致
+     * @return 该页的底图指令和变化区域指令
+     */
+    public Page diff(BufferedImage image) {
+        CpclOutput.Heap out = new CpclOutput.Heap();
+        State state = encode(out, image, false);
+        return new Page(state.background, out.toByteArray(), state.regions.length);
+    }
+
+    /**
+     * 当前的变化区域数
+     *
+     * @return 区域数，0表示还没有与底图不同的页
+     */
+    public int regionCount() {
+        return state.regions.length;
+    }
+
+    /**
+     * 编码一页，写入底图指令和变化区域指令
+     */
+    void writeTo(CpclOutput out, BufferedImage image) {
+        encode(out, image, true);
+    }
+
+    /**
+     * 编码一页，background为true时先写入底图指令，再写入变化区域指令
+     *
+     * @return 编码时使用的区域和底图
+     */
+    private State encode(CpclOutput out, BufferedImage image, boolean background) {
+        if (image.getWidth() != width || image.getHeight() != height) {
+            throw new IllegalArgumentException("image size " + image.getWidth() + "x" + image.getHeight()
+                    + " != base " + width + "x" + height);
+        }
+        Bitmap page = CPCL.ImageUtils.binarize(image, threshold, options);
+        try {
+            State state = update(page);
+            if (background) out.write(state.background, 0, state.background.length);
+            for (int[] r : state.regions) {
+                BitmapEncoder.gg(out, page.data, page.off + r[0] * page.stride + r[2], page.stride, r[3] - r[2], r[1] - r[0],
+                        x + r[2] * 8, y + r[0], maxSize, options);
+            }
+            return state;
+        } finally {
+            options.bufferPool.release(page.data);
+        }
+    }
+
+    /**
+     * 页面的变化都在已有区域内时沿用，否则扩大区域并重新编码底图
+     */
+    private State update(Bitmap page) {
+        List<int[]> changed = changes(page);
+        State state = this.state;
+        if (covered(state.regions, changed)) return state;
+        synchronized (this) {
+            state = this.state;
+            if (covered(state.regions, changed)) return state;
+            List<int[]> regions = new ArrayList<>(Arrays.asList(state.regions));
+            for (int[] c : changed) merge(regions, c);
+            long area = 0;
+            for (int[] r : regions) area += (long) (r[1] - r[0]) * (r[3] - r[2]);
+            if (area * 2 > (long) byteWidth * height) {
+                regions.clear();
+                regions.add(new int[]{0, height, 0, byteWidth});
+            }
+            state = state(regions.toArray(new int[0][]));
+            this.state = state;
+            return state;
+        }
+    }
+
+    /**
+     * 与底图不同的区域{r0, r1, c0, c1}，行[r0, r1)，字节列[c0, c1)
+     */
+    private List<int[]> changes(Bitmap page) {
+        byte[] xor = options.bufferPool.bytes(byteWidth * height);
+        for (int r = 0; r < height; r++) {
+            int p = page.off + r * page.stride;
+            int b = r * byteWidth;
+            for (int c = 0; c < byteWidth; c++) xor[b + c] = (byte) (base[b + c] ^ page.data[p + c]);
+        }
+        List<int[]> changed = new ArrayList<>();
+        BitmapEncoder.forEachRegion(xor, 0, byteWidth, byteWidth, height, GAP_BYTES, (r0, r1, c0, c1) ->
+                changed.add(new int[]{r0, r1, c0, c1}));
+        options.bufferPool.release(xor);
+        return changed;
+    }
+
+    private static boolean covered(int[][] regions, List<int[]> changed) {
+        for (int[] c : changed) {
+            boolean inside = false;
+            for (int[] r : regions) {
+                if (r[0] <= c[0] && c[1] <= r[1] && r[2] <= c[2] && c[3] <= r[3]) {
+                    inside = true;
+                    break;
+                }
+            }
+            if (!inside) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 加入区域，与相交或合并代价不超过GAP_BYTES的区域合并，直到没有可合并的区域
+     */
+    private static void merge(List<int[]> regions, int[] region) {
+        int[] m = region.clone();
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size(); i++) {
+                int[] r = regions.get(i);
+                int r0 = Math.min(m[0], r[0]);
+                int r1 = Math.max(m[1], r[1]);
+                int c0 = Math.min(m[2], r[2]);
+                int c1 = Math.max(m[3], r[3]);
+                boolean intersects = m[0] < r[1] && r[0] < m[1] && m[2] < r[3] && r[2] < m[3];
+                long extra = (long) (r1 - r0) * (c1 - c0) - (long) (m[1] - m[0]) * (m[3] - m[2]) - (long) (r[1] - r[0]) * (r[3] - r[2]);
+                if (intersects || extra <= GAP_BYTES) {
+                    m = new int[]{r0, r1, c0, c1};
+                    regions.remove(i);
+                    merged = true;
+                    break;
+                }
+            }
+        }
+        regions.add(m);
+    }
+
+    /**
+     * 底图去掉变化区域后编码
+     */
+    private State state(int[][] regions) {
+        if (regions.length == 1 && regions[0][1] - regions[0][0] == height && regions[0][3] - regions[0][2] == byteWidth) {
+            return new State(regions, new byte[0]);
+        }
+        byte[] data = options.bufferPool.bytes(byteWidth * height);
+        System.arraycopy(base, 0, data, 0, byteWidth * height);
+        for (int[] r : regions) {
+            for (int row = r[0]; row < r[1]; row++) Arrays.fill(data, row * byteWidth + r[2], row * byteWidth + r[3], (byte) 0);
+        }
+        CpclOutput.Heap out = new CpclOutput.Heap();
+        BitmapEncoder.gg(out, data, 0, byteWidth, byteWidth, height, x, y, maxSize, options);
+        options.bufferPool.release(data);
+        return new State(regions, out.toByteArray());
+    }
+
+    private static final class State {
+        final int[][] regions;
+        final byte[] background;
+
+        State(int[][] regions, byte[] background) {
+            this.regions = regions;
+            this.background = background;
+        }
+    }
+
+    /**
+     * 一页的指令
+     */
+    public static final class Page {
+        private final byte[] background;
+        private final byte[] changes;
+        private final int regionCount;
+
+        Page(byte[] background, byte[] changes, int regionCount) {
+            this.background = background;
+            this.changes = changes;
+            this.regionCount = regionCount;
+        }
+
+        /**
+         * 底图指令，变化区域不变时各页共用同一数组，调用方不得修改
+         *
+         * @return CPCL
+         */
+        public byte[] background() {
+            return background;
+        }
+
+        /**
+         * 变化区域指令
+         *
+         * @return CPCL
+         */
+        public byte[] changes() {
+            return changes;
+        }
+
+        /**
+         * 变化区域数
+         *
+         * @return 区域数
+         */
+        public int regionCount() {
+            return regionCount;
+        }
+
+        /**
+         * 底图指令和变化区域指令
+         *
+         * @return CPCL
+         */
+        public byte[] toByteArray() {
+            byte[] cpcl = Arrays.copyOf(background, background.length + changes.length);
+            System.arraycopy(changes, 0, cpcl, background.length, changes.length);
+            return cpcl;
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.lingmoyun.instruction;
+
+/**
+ * 任务大小预估结果
+ * <p>
+ * 文本、线条、条码等指令及CG/EG图片指令的字节数与实际输出一致；
+ * GG图片指令按抽样压缩估算，开启去除空白时CG/EG为上限，这两部分计入{@link #estimatedBytes()}。
+ *
+ * @author guoweifeng
+ */
+public final class CpclEstimate {
+
+    private final long bytes;
+    private final long estimatedBytes;
+    private final long decompressedBytes;
+
+    CpclEstimate(long bytes, long estimatedBytes, long decompressedBytes) {
+        this.bytes = bytes;
+        this.estimatedBytes = estimatedBytes;
+        this.decompressedBytes = decompressedBytes;
+    }
+
+    /**
+     * 总字节数
+     *
+     * @return 字节数
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * 其中估算的字节数
+     *
+     * @return 字节数
+     */
+    public long estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * GG指令解压后的位图字节数，用于估算打印机解压耗时，仅预估Builder统计
+     *
+     * @return 字节数
+     */
+    public long decompressedBytes() {
+        return decompressedBytes;
+    }
+
+    /**
+     * 是否为准确值
+     *
+     * @return 不含估算部分时返回true
+     */
+    public boolean isExact() {
+        return estimatedBytes == 0;
+    }
+
+    /**
+     * 在指定链路上的传输时间，含GG指令的解压时间
+     *
+     * @param link 链路模型
+     * @return 单位：毫秒
+     */
+    public long transferMillis(LinkModel link) {
+        return link.transferMillis(bytes) + link.decompressMillis(decompressedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "CpclEstimate{bytes=" + bytes + ", estimatedBytes=" + estimatedBytes + ", decompressedBytes=" + decompressedBytes + "}";
+    }
+
+}
@@ -0,0 +1,471 @@
+package com.lingmoyun.instruction;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * CPCL指令输出
+ * <p>
+ * 指令直接编码进缓冲区，{@link Heap}在内存中累积整个任务，
+ * {@link Stream}/{@link Channel}缓冲区写满即刷出到下游，缓冲区循环复用。
+ *
+ * @author guoweifeng
+ */
+abstract class CpclOutput {
+
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * 文本编码，不支持GBK时使用系统默认编码
+     */
+    static final Charset CHARSET = Charset.isSupported("GBK") ? Charset.forName("GBK") : Charset.defaultCharset();
+
+    private static final ThreadLocal<TextEncoder> TEXT_ENCODER = new ThreadLocal<TextEncoder>() {
+        @Override
+        protected TextEncoder initialValue() {
+            return new TextEncoder();
+        }
+    };
+
+    /**
+     * 半字节 -> 十六进制字符（大写）
+     */
+    static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    private final byte[] digits = new byte[11];
+    private byte[] hex;
+
+    /**
+     * 写入一个字节
+     *
+     * @param b 字节
+     * @return this
+     */
+    abstract CpclOutput write(int b);
+
+    /**
+     * 写入字节数组
+     *
+     * @param bytes 字节数组
+     * @param off   起始位置
+     * @param len   长度
+     * @return this
+     */
+    abstract CpclOutput write(byte[] bytes, int off, int len);
+
+    /**
+     * 刷出缓冲区中的数据，内存输出无操作
+     */
+    void flush() {
+    }
+
+    CpclOutput write(byte[] bytes) {
+        return write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 写入ASCII字符，用于指令关键字等，调用方保证字符均小于0x80
+     *
+     * @param s    字符串
+     * @param from 起始位置
+     * @param to   结束位置（不含）
+     * @return this
+     */
+    CpclOutput writeAscii(String s, int from, int to) {
+        for (int i = from; i < to; i++) write(s.charAt(i));
+        return this;
+    }
+
+    CpclOutput writeAscii(String s) {
+        return writeAscii(s, 0, s.length());
+    }
+
+    /**
+     * 整数按十进制数字写入，与String.valueOf(int)结果一致
+     *
+     * @param i 整数
+     * @return this
+     */
+    CpclOutput writeInt(int i) {
+        if (i == Integer.MIN_VALUE) return writeAscii("-2147483648");
+        int pos = digits.length;
+        boolean negative = i < 0;
+        if (negative) i = -i;
+        do {
+            digits[--pos] = (byte) ('0' + i % 10);
+            i /= 10;
+        } while (i != 0);
+        if (negative) digits[--pos] = '-';
+        return write(digits, pos, digits.length - pos);
+    }
+
+    /**
+     * 字节按两位大写十六进制写入，与String.format("%02X")逐字节拼接结果一致
+     *
+     * @param bytes 字节数组
+     * @param off   起始位置
+     * @param len   长度
+     * @return this
+     */
+    CpclOutput writeHex(byte[] bytes, int off, int len) {
+        if (hex == null) hex = new byte[512];
+        while (len > 0) {
+            int n = Math.min(len, hex.length >> 1);
+            toHex(bytes, off, n, hex, 0);
+            write(hex, 0, n << 1);
+            off += n;
+            len -= n;
+        }
+        return this;
+    }
+
+    static void toHex(byte[] src, int off, int len, byte[] dst, int pos) {
+        for (int i = off, end = off + len; i < end; i++) {
+            int b = src[i];
+            dst[pos++] = HEX_DIGITS[(b >> 4) & 0xF];
+            dst[pos++] = HEX_DIGITS[b & 0xF];
+        }
+    }
+
+    /**
+     * 写入文本，与s.getBytes("GBK")结果一致
+     * 纯ASCII部分直接写入，仅非ASCII部分经过GBK编码器
+     *
+     * @param s 文本，null按"null"写入
+     * @return this
+     */
+    CpclOutput writeText(String s) {
+        if (s == null) s = "null";
+        int len = s.length();
+        int i = 0;
+        while (i < len && s.charAt(i) < 0x80) i++;
+        writeAscii(s, 0, i);
+        if (i < len) TEXT_ENCODER.get().encode(s, i, len, this);
+        return this;
+    }
+
+    /**
+     * 线程内复用的GBK编码器
+     */
+    private static final class TextEncoder {
+        private final CharsetEncoder encoder = CHARSET.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer scratch = ByteBuffer.allocate(256);
+
+        void encode(String s, int from, int to, CpclOutput out) {
+            CharBuffer in = CharBuffer.wrap(s, from, to);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(in, scratch, true);
+                drain(out);
+            } while (result.isOverflow());
+            do {
+                result = encoder.flush(scratch);
+                drain(out);
+            } while (result.isOverflow());
+        }
+
+        private void drain(CpclOutput out) {
+            out.write(scratch.array(), 0, scratch.position());
+            scratch.clear();
+        }
+    }
+
+    /**
+     * 内存输出，可自动扩容
+     */
+    static final class Heap extends CpclOutput {
+        private byte[] buf;
+        private int count;
+
+        Heap() {
+            this(256);
+        }
+
+        Heap(int initialCapacity) {
+            buf = new byte[Math.max(initialCapacity, 16)];
+        }
+
+        private void ensureCapacity(int minCapacity) {
+            if (minCapacity - buf.length > 0) {
+                int newCapacity = Math.max(buf.length << 1, minCapacity);
+                buf = Arrays.copyOf(buf, newCapacity);
+            }
+        }
+
+        @Override
+        Heap write(int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+            return this;
+        }
+
+        @Override
+        Heap write(byte[] bytes, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(bytes, off, buf, count, len);
+            count += len;
+            return this;
+        }
+
+        @Override
+        Heap writeAscii(String s, int from, int to) {
+            ensureCapacity(count + to - from);
+            for (int i = from; i < to; i++) buf[count++] = (byte) s.charAt(i);
+            return this;
+        }
+
+        @Override
+        Heap writeHex(byte[] bytes, int off, int len) {
+            ensureCapacity(count + (len << 1));
+            toHex(bytes, off, len, buf, count);
+            count += len << 1;
+            return this;
+        }
+
+        /**
+         * 清空内容，保留已分配的缓冲区
+         */
+        void reset() {
+            count = 0;
+        }
+
+        /**
+         * 清空内容，缓冲区超过maxRetained时释放，避免一次大任务后长期占用内存
+         *
+         * @param maxRetained 保留的最大缓冲区大小，单位：字节
+         */
+        void reset(int maxRetained) {
+            count = 0;
+            if (buf.length > maxRetained) buf = new byte[Math.max(Math.min(maxRetained, 256), 16)];
+        }
+
+        /**
+         * 将内容写入输出流，不复制
+         *
+         * @param out 输出流
+         * @throws IOException 写出失败
+         */
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buf, 0, count);
+        }
+
+        int size() {
+            return count;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+    }
+
+    /**
+     * 计数输出，只统计字节数，不保存内容，用于预估任务大小
+     * 图片指令按尺寸计算，GG指令的压缩数据按抽样估算，计入estimated，解压后的大小计入decompressed
+     */
+    static final class Counter extends CpclOutput {
+        private long count;
+        private long estimated;
+        private long decompressed;
+
+        @Override
+        Counter write(int b) {
+            count++;
+            return this;
+        }
+
+        @Override
+        Counter write(byte[] bytes, int off, int len) {
+            count += len;
+            return this;
+        }
+
+        @Override
+        Counter writeAscii(String s, int from, int to) {
+            count += to - from;
+            return this;
+        }
+
+        @Override
+        Counter writeHex(byte[] bytes, int off, int len) {
+            count += (long) len << 1;
+            return this;
+        }
+
+        /**
+         * 计入n字节，不提供内容
+         *
+         * @param n 字节数
+         * @return this
+         */
+        Counter skip(long n) {
+            count += n;
+            return this;
+        }
+
+        /**
+         * 将最近写入的n字节标记为估算值
+         *
+         * @param n 字节数
+         */
+        void markEstimated(long n) {
+            estimated += n;
+        }
+
+        /**
+         * 计入GG指令解压后的位图字节数
+         *
+         * @param n 字节数
+         */
+        void addDecompressed(long n) {
+            decompressed += n;
+        }
+
+        long size() {
+            return count;
+        }
+
+        long estimated() {
+            return estimated;
+        }
+
+        long decompressed() {
+            return decompressed;
+        }
+    }
+
+    /**
+     * 流输出，缓冲区写满后写入OutputStream
+     */
+    static final class Stream extends CpclOutput {
+        private final OutputStream out;
+        private final byte[] buf;
+        private int count;
+
+        Stream(OutputStream out, int bufferSize) {
+            if (out == null) throw new NullPointerException("out");
+            this.out = out;
+            this.buf = new byte[Math.max(bufferSize, 16)];
+        }
+
+        private void flushBuffer() {
+            if (count > 0) {
+                try {
+                    out.write(buf, 0, count);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count = 0;
+            }
+        }
+
+        @Override
+        Stream write(int b) {
+            if (count == buf.length) flushBuffer();
+            buf[count++] = (byte) b;
+            return this;
+        }
+
+        @Override
+        Stream write(byte[] bytes, int off, int len) {
+            if (len >= buf.length) {
+                // 大块数据直接写出，不经过缓冲区
+                flushBuffer();
+                try {
+                    out.write(bytes, off, len);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return this;
+            }
+            if (len > buf.length - count) flushBuffer();
+            System.arraycopy(bytes, off, buf, count, len);
+            count += len;
+            return this;
+        }
+
+        @Override
+        Stream writeHex(byte[] bytes, int off, int len) {
+            while (len > 0) {
+                if (buf.length - count < 2) flushBuffer();
+                int n = Math.min(len, (buf.length - count) >> 1);
+                toHex(bytes, off, n, buf, count);
+                count += n << 1;
+                off += n;
+                len -= n;
+            }
+            return this;
+        }
+
+        @Override
+        void flush() {
+            flushBuffer();
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * 通道输出，使用直接内存缓冲区，写满后写入WritableByteChannel
+     */
+    static final class Channel extends CpclOutput {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buf;
+
+        Channel(WritableByteChannel channel, int bufferSize) {
+            if (channel == null) throw new NullPointerException("channel");
+            this.channel = channel;
+            this.buf = ByteBuffer.allocateDirect(Math.max(bufferSize, 16));
+        }
+
+        private void flushBuffer() {
+            buf.flip();
+            try {
+                while (buf.hasRemaining()) channel.write(buf);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                buf.clear();
+            }
+        }
+
+        @Override
+        Channel write(int b) {
+            if (!buf.hasRemaining()) flushBuffer();
+            buf.put((byte) b);
+            return this;
+        }
+
+        @Override
+        Channel write(byte[] bytes, int off, int len) {
+            while (len > 0) {
+                if (!buf.hasRemaining()) flushBuffer();
+                int n = Math.min(len, buf.remaining());
+                buf.put(bytes, off, n);
+                off += n;
+                len -= n;
+            }
+            return this;
+        }
+
+        @Override
+        void flush() {
+            if (buf.position() > 0) flushBuffer();
+        }
+    }
+
+}
@@ -0,0 +1,307 @@
+package com.lingmoyun.instruction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * CPCL指令模板
+ * <p>
+ * 固定内容（文本、线条、图片等）在编译时编码为不可变的字节段，渲染时只编码变量字段并按顺序拼接，
+ * 输出大小预先计算，每张标签只分配一次，或直接写入流式Builder。编译后线程安全，可在多线程间共享。
+ * <pre>
+ * CpclTemplate template = CpclTemplate.newBuilder()
+ *         .append(b -&gt; b.area(0, 203, 1200, 1).pageWidth(800).imageGG(0, 0, logo))
+ *         .textField("name", 8, 0, 100, 300)
+ *         .barCodeField("trackingNo", 1, 1, 100, 60, 130)
+ *         .textField("trackingNo", 7, 0, 160, 240)
+ *         .append(b -&gt; b.form().print())
+ *         .compile();
+ * byte[] cpcl = template.render("张三", "SF1234567890");
+ * </pre>
+ *
+ * @author guoweifeng
+ */
+public final class CpclTemplate {
+
+    /**
+     * 创建模板构建器
+     *
+     * @return Builder
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * 固定字节段，segments[i]之后为第i个字段，共fieldCount + 1段
+     */
+    private final byte[][] segments;
+    /**
+     * 字段对应的变量序号
+     */
+    private final int[] fieldNames;
+    private final List<String> names;
+    private final int fixedSize;
+
+    private CpclTemplate(byte[][] segments, int[] fieldNames, List<String> names) {
+        this.segments = segments;
+        this.fieldNames = fieldNames;
+        this.names = Collections.unmodifiableList(names);
+        int size = 0;
+        for (byte[] segment : segments) size += segment.length;
+        this.fixedSize = size;
+    }
+
+    /**
+     * 变量名，按首次出现的顺序，即{@link #render(String...)}的参数顺序
+     *
+     * @return 变量名
+     */
+    public List<String> names() {
+        return names;
+    }
+
+    /**
+     * 渲染
+     *
+     * @param values 变量值，按{@link #names()}顺序，null按"null"写入
+     * @return CPCL
+     */
+    public byte[] render(String... values) {
+        checkValues(values);
+        byte[][] encoded = null;
+        int size = fixedSize;
+        for (int i = 0; i < fieldNames.length; i++) {
+            String value = value(values, i);
+            if (isAscii(value)) {
+                size += value.length();
+            } else {
+                if (encoded == null) encoded = new byte[fieldNames.length][];
+                encoded[i] = value.getBytes(CpclOutput.CHARSET);
+                size += encoded[i].length;
+            }
+        }
+        byte[] cpcl = new byte[size];
+        int pos = 0;
+        for (int i = 0; i < fieldNames.length; i++) {
+            pos = copy(segments[i], cpcl, pos);
+            if (encoded != null && encoded[i] != null) {
+                pos = copy(encoded[i], cpcl, pos);
+            } else {
+                String value = value(values, i);
+                for (int j = 0, n = value.length(); j < n; j++) cpcl[pos++] = (byte) value.charAt(j);
+            }
+        }
+        copy(segments[fieldNames.length], cpcl, pos);
+        return cpcl;
+    }
+
+    /**
+     * 渲染
+     *
+     * @param values 变量名 -&gt; 变量值
+     * @return CPCL
+     */
+    public byte[] render(Map<String, String> values) {
+        return render(toArray(values));
+    }
+
+    /**
+     * 渲染并写入输出
+     */
+    void writeTo(CpclOutput out, String... values) {
+        checkValues(values);
+        for (int i = 0; i < fieldNames.length; i++) {
+            out.write(segments[i]).writeText(value(values, i));
+        }
+        out.write(segments[fieldNames.length]);
+    }
+
+    String[] toArray(Map<String, String> values) {
+        String[] array = new String[names.size()];
+        for (int i = 0; i < array.length; i++) {
+            String name = names.get(i);
+            if (!values.containsKey(name)) throw new IllegalArgumentException("missing value for field: " + name);
+            array[i] = values.get(name);
+        }
+        return array;
+    }
+
+    private void checkValues(String[] values) {
+        if (values.length != names.size()) {
+            throw new IllegalArgumentException("expected " + names.size() + " values " + names + ", got " + values.length);
+        }
+    }
+
+    private String value(String[] values, int field) {
+        String value = values[fieldNames[field]];
+        return value == null ? "null" : value;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            if (s.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private static int copy(byte[] src, byte[] dst, int pos) {
+        System.arraycopy(src, 0, dst, pos, src.length);
+        return pos + src.length;
+    }
+
+    /**
+     * 模板构建器，非线程安全
+     */
+    public static final class Builder {
+        private final List<byte[]> segments = new ArrayList<>();
+        private final List<Integer> fieldNames = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final CpclOutput.Heap current = new CpclOutput.Heap();
+
+        private Builder() {
+        }
+
+        /**
+         * 追加固定指令
+         *
+         * @param cpcl 指令，如{@link CPCL}各方法的返回值
+         * @return Builder
+         */
+        public Builder append(byte[] cpcl) {
+            current.write(cpcl);
+            return this;
+        }
+
+        /**
+         * 追加固定指令
+         *
+         * @param commands 使用CpclBuilder构建固定指令，如区域、图片、线条
+         * @return Builder
+         */
+        public Builder append(Consumer<CpclBuilder> commands) {
+            CpclBuilder builder = CpclBuilder.newBuilder();
+            commands.accept(builder);
+            return append(builder.build());
+        }
+
+        /**
+         * 文本字段
+         *
+         * @param name     变量名，同名字段使用同一个值
+         * @param font     字体
+         * @param fontSize 字体大小
+         * @param x        打印位置，x坐标，单位：点
+         * @param y        打印位置，y坐标，单位：点
+         * @return Builder
+         */
+        public Builder textField(String name, int font, int fontSize, int x, int y) {
+            return textField(name, 0, font, fontSize, x, y);
+        }
+
+        /**
+         * 文本字段
+         *
+         * @param name     变量名，同名字段使用同一个值
+         * @param degree   角度 0/90/180/270
+         * @param font     字体
+         * @param fontSize 字体大小
+         * @param x        打印位置，x坐标，单位：点
+         * @param y        打印位置，y坐标，单位：点
+         * @return Builder
+         */
+        public Builder textField(String name, int degree, int font, int fontSize, int x, int y) {
+            CPCL.textPrefix(current, degree, font, fontSize, x, y);
+            field(name);
+            current.write(CPCL.LINE_BYTES);
+            return this;
+        }
+
+        /**
+         * 条形码字段
+         *
+         * @param name   变量名，同名字段使用同一个值
+         * @param width  窄条的单位宽度
+         * @param ratio  宽条与窄条的比率
+         * @param height 条码的单位高度
+         * @param x      打印位置，x坐标，单位：点
+         * @param y      打印位置，y坐标，单位：点
+         * @return Builder
+         */
+        public Builder barCodeField(String name, int width, int ratio, int height, int x, int y) {
+            CPCL.barCodePrefix(current, width, ratio, height, x, y);
+            field(name);
+            current.write(CPCL.LINE_BYTES);
+            return this;
+        }
+
+        /**
+         * 二维码字段
+         *
+         * @param name 变量名，同名字段使用同一个值
+         * @param x    打印位置，x坐标，单位：点
+         * @param y    打印位置，y坐标，单位：点
+         * @return Builder
+         */
+        public Builder qrCodeField(String name, int x, int y) {
+            return qrCodeField(name, CPCL.QR_CODE_ECC_M, x, y);
+        }
+
+        /**
+         * 二维码字段
+         *
+         * @param name 变量名，同名字段使用同一个值
+         * @param ecc  纠错级别
+         * @param x    打印位置，x坐标，单位：点
+         * @param y    打印位置，y坐标，单位：点
+         * @return Builder
+         */
+        public Builder qrCodeField(String name, String ecc, int x, int y) {
+            CPCL.qrCodePrefix(current, ecc, x, y);
+            field(name);
+            CPCL.qrCodeSuffix(current);
+            return this;
+        }
+
+        /**
+         * 原样插入的字段，用于手动拼接的指令
+         *
+         * @param name 变量名，同名字段使用同一个值
+         * @return Builder
+         */
+        public Builder field(String name) {
+            if (name == null) throw new NullPointerException("name");
+            int index = names.indexOf(name);
+            if (index < 0) {
+                index = names.size();
+                names.add(name);
+            }
+            segments.add(current.toByteArray());
+            current.reset();
+            fieldNames.add(index);
+            return this;
+        }
+
+        /**
+         * 编译模板
+         *
+         * @return CpclTemplate
+         */
+        public CpclTemplate compile() {
+            byte[][] compiled = segments.toArray(new byte[segments.size() + 1][]);
+            compiled[segments.size()] = current.toByteArray();
+            int[] fields = new int[fieldNames.size()];
+            for (int i = 0; i < fields.length; i++) fields[i] = fieldNames.get(i);
+            return new CpclTemplate(compiled, fields, new ArrayList<>(names));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CpclTemplate{names=" + names + ", fixedSize=" + fixedSize + ", segments=" + segments.length + "}";
+    }
+
+}
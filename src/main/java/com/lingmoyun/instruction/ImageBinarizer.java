@@ -0,0 +1,827 @@
+package com.lingmoyun.instruction;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 图片二值化
+ * <p>
+ * 按图片类型直接读取Raster底层数组，逐行打包为位图(CG Data)，
+ * 未知类型回退为逐行getRGB。结果与{@link BufferedImage#getRGB(int, int)}逐点计算一致，
+ * 灰度图按颜色模型预先计算查找表（线性灰度到sRGB转换）。
+ * 实例无可变状态，不同行区间可并发处理。
+ *
+ * @author guoweifeng
+ */
+abstract class ImageBinarizer {
+
+    final int width;
+    final int height;
+    final int byteWidth;
+    final int threshold;
+
+    ImageBinarizer(BufferedImage image, int threshold) {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.byteWidth = CPCL.ImageUtils.byteWidth(width);
+        this.threshold = threshold;
+    }
+
+    ImageBinarizer(ImageBinarizer source) {
+        this.width = source.width;
+        this.height = source.height;
+        this.byteWidth = source.byteWidth;
+        this.threshold = source.threshold;
+    }
+
+    /**
+     * 选择与图片类型及抖动方式匹配的实现
+     *
+     * @param image     图片
+     * @param threshold 黑白阈值，取值范围0-255
+     * @param options   图片指令选项，使用其中的抖动方式和缓冲区池
+     * @return ImageBinarizer
+     */
+    static ImageBinarizer of(BufferedImage image, int threshold, ImageOptions options) {
+        return of(image, threshold, options, 0, null);
+    }
+
+    /**
+     * 选择与图片类型及抖动方式匹配的实现，用于分段解码的图片
+     *
+     * @param band      图片的一段
+     * @param threshold 黑白阈值，取值范围0-255
+     * @param options   图片指令选项，使用其中的抖动方式和缓冲区池
+     * @param bandY     该段在整张图片中的起始行
+     * @param errors    误差扩散时跨段传递的误差行，长度不小于width + 2，null表示不跨段
+     * @return ImageBinarizer
+     */
+    static ImageBinarizer of(BufferedImage band, int threshold, ImageOptions options, int bandY, int[] errors) {
+        ImageBinarizer source = of(band, threshold);
+        switch (options.dither) {
+            case FLOYD_STEINBERG:
+                return new ErrorDiffusion(source, errors, options.bufferPool);
+            case BAYER:
+                return new Ordered(source, bandY, options.bufferPool);
+            default:
+                return source;
+        }
+    }
+
+    /**
+     * 选择与图片类型匹配的实现
+     *
+     * @param image     图片
+     * @param threshold 黑白阈值，取值范围0-255
+     * @return ImageBinarizer
+     */
+    static ImageBinarizer of(BufferedImage image, int threshold) {
+        WritableRaster raster = image.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_BGR:
+                if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+                    return new IntRgb(image, threshold, image.getType() == BufferedImage.TYPE_INT_BGR);
+                }
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+                    return new ByteRgb(image, threshold);
+                }
+                break;
+            case BufferedImage.TYPE_BYTE_GRAY:
+                if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+                    return new ByteGray(image, threshold);
+                }
+                break;
+            case BufferedImage.TYPE_USHORT_GRAY:
+                if (db instanceof DataBufferUShort && sm instanceof ComponentSampleModel) {
+                    return new UShortGray(image, threshold);
+                }
+                break;
+            default:
+                break;
+        }
+        // 索引色按结构判断，包括TYPE_BYTE_INDEXED、TYPE_BYTE_BINARY及解码得到的TYPE_CUSTOM
+        if (image.getColorModel() instanceof IndexColorModel && db instanceof DataBufferByte && db.getNumBanks() == 1) {
+            if (sm instanceof MultiPixelPackedSampleModel) {
+                return new BytePacked(image, threshold);
+            }
+            if (sm instanceof ComponentSampleModel && sm.getNumBands() == 1 && sm.getSampleSize(0) <= 8) {
+                return new ByteIndexed(image, threshold);
+            }
+        }
+        return new Generic(image, threshold);
+    }
+
+    /**
+     * 是否有直接读取Raster的实现
+     *
+     * @param image 图片
+     * @return 有返回true，否则逐行getRGB
+     */
+    static boolean isNative(BufferedImage image) {
+        return !(of(image, 0) instanceof Generic);
+    }
+
+    /**
+     * 将[y0, y1)行二值化，每行byteWidth字节写入dst
+     *
+     * @param y0     起始行
+     * @param y1     结束行（不含）
+     * @param dst    位图
+     * @param off    位图起始位置
+     * @param stride 位图每行间隔，单位：字节
+     */
+    abstract void binarize(int y0, int y1, byte[] dst, int off, int stride);
+
+    /**
+     * 读取第y行的灰度值(0-255)，与本实例二值化时和阈值比较的灰度值一致
+     *
+     * @param y   行
+     * @param row 灰度值，长度不小于width
+     */
+    abstract void grey(int y, int[] row);
+
+    /**
+     * 二值化整张图片，满足并行条件时按行分段并行处理
+     *
+     * @param dst     位图
+     * @param off     位图起始位置
+     * @param stride  位图每行间隔，单位：字节
+     * @param options 图片指令选项
+     */
+    void binarize(byte[] dst, int off, int stride, ImageOptions options) {
+        if (!options.isParallel(width, height) || height < 2) {
+            binarize(0, height, dst, off, stride);
+            return;
+        }
+        int bands = Math.min(options.parallelism, height);
+        int bandRows = (height + bands - 1) / bands;
+        options.pool().invoke(new BandTask(this, 0, height, bandRows, dst, off, stride));
+    }
+
+    /**
+     * 按行二分，直到不超过bandRows行
+     */
+    static final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final ImageBinarizer binarizer;
+        private final int y0;
+        private final int y1;
+        private final int bandRows;
+        private final byte[] dst;
+        private final int off;
+        private final int stride;
+
+        BandTask(ImageBinarizer binarizer, int y0, int y1, int bandRows, byte[] dst, int off, int stride) {
+            this.binarizer = binarizer;
+            this.y0 = y0;
+            this.y1 = y1;
+            this.bandRows = bandRows;
+            this.dst = dst;
+            this.off = off;
+            this.stride = stride;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = y1 - y0;
+            if (rows <= bandRows) {
+                binarizer.binarize(y0, y1, dst, off + y0 * stride, stride);
+                return;
+            }
+            int bands = (rows + bandRows - 1) / bandRows;
+            int mid = y0 + (bands / 2) * bandRows;
+            invokeAll(new BandTask(binarizer, y0, mid, bandRows, dst, off, stride),
+                    new BandTask(binarizer, mid, y1, bandRows, dst, off, stride));
+        }
+    }
+
+    /**
+     * 依次检查R、G、B是否超过阈值
+     * 超过视为白色0，否则黑色1
+     */
+    static int rgb2Bin(int rgb, int threshold) {
+        return rgb2Grey(rgb) > threshold ? 0 : 1;
+    }
+
+    static int rgb2Grey(int rgb) {
+        int r = (rgb & 0x00ff0000) >> 16;
+        int g = (rgb & 0x0000ff00) >> 8;
+        int b = (rgb & 0x000000ff);
+        return (r * 38 + g * 75 + b * 15) >> 7;
+    }
+
+    /**
+     * 颜色模型下每个像素值(0..size-1)对应的灰度值
+     */
+    static int[] greyTable(ColorModel cm, int size) {
+        int[] lut = new int[size];
+        for (int v = 0; v < size; v++) {
+            lut[v] = rgb2Grey(cm.getRGB(v));
+        }
+        return lut;
+    }
+
+    /**
+     * 颜色模型下每个像素值(0..size-1)对应的黑白值
+     */
+    static byte[] lookupTable(ColorModel cm, int size, int threshold) {
+        byte[] lut = new byte[size];
+        for (int v = 0; v < size; v++) {
+            lut[v] = (byte) rgb2Bin(cm.getRGB(v), threshold);
+        }
+        return lut;
+    }
+
+    /**
+     * TYPE_INT_RGB / TYPE_INT_ARGB / TYPE_INT_BGR
+     */
+    static final class IntRgb extends ImageBinarizer {
+        private final int[] data;
+        private final int origin;
+        private final int scanline;
+        private final boolean bgr;
+
+        IntRgb(BufferedImage image, int threshold, boolean bgr) {
+            super(image, threshold);
+            WritableRaster raster = image.getRaster();
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+            this.data = db.getData();
+            this.origin = db.getOffset() + sm.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            this.scanline = sm.getScanlineStride();
+            this.bgr = bgr;
+        }
+
+        @Override
+        void binarize(int y0, int y1, byte[] dst, int off, int stride) {
+            final int[] data = this.data;
+            final int t = threshold;
+            final int rShift = bgr ? 0 : 16;
+            final int bShift = bgr ? 16 : 0;
+            for (int y = y0; y < y1; y++) {
+                int p = origin + y * scanline;
+                int o = off + (y - y0) * stride;
+                int x = 0;
+                while (x < width) {
+                    int bin = 0;
+                    int n = Math.min(8, width - x);
+                    for (int k = 0; k < n; k++) {
+                        int rgb = data[p++];
+                        int grey = (((rgb >> rShift) & 0xff) * 38 + ((rgb >> 8) & 0xff) * 75 + ((rgb >> bShift) & 0xff) * 15) >> 7;
+                        bin = (bin << 1) | (grey > t ? 0 : 1);
+                    }
+                    dst[o++] = (byte) (bin << (8 - n));
+                    x += n;
+                }
+            }
+        }
+
+        @Override
+        void grey(int y, int[] row) {
+            final int rShift = bgr ? 0 : 16;
+            final int bShift = bgr ? 16 : 0;
+            int p = origin + y * scanline;
+            for (int x = 0; x < width; x++) {
+                int rgb = data[p++];
+                row[x] = (((rgb >> rShift) & 0xff) * 38 + ((rgb >> 8) & 0xff) * 75 + ((rgb >> bShift) & 0xff) * 15) >> 7;
+            }
+        }
+    }
+
+    /**
+     * TYPE_3BYTE_BGR / TYPE_4BYTE_ABGR
+     */
+    static final class ByteRgb extends ImageBinarizer {
+        private final byte[] data;
+        private final int origin;
+        private final int scanline;
+        private final int pixelStride;
+        private final int rOffset;
+        private final int gOffset;
+        private final int bOffset;
+
+        ByteRgb(BufferedImage image, int threshold) {
+            super(image, threshold);
+            WritableRaster raster = image.getRaster();
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+            int[] bandOffsets = sm.getBandOffsets();
+            this.data = db.getData();
+            this.scanline = sm.getScanlineStride();
+            this.pixelStride = sm.getPixelStride();
+            this.origin = db.getOffset() - raster.getSampleModelTranslateY() * scanline - raster.getSampleModelTranslateX() * pixelStride;
+            this.rOffset = bandOffsets[0];
+            this.gOffset = bandOffsets[1];
+            this.bOffset = bandOffsets[2];
+        }
+
+        @Override
+        void binarize(int y0, int y1, byte[] dst, int off, int stride) {
+            final byte[] data = this.data;
+            final int t = threshold;
+            for (int y = y0; y < y1; y++) {
+                int p = origin + y * scanline;
+                int o = off + (y - y0) * stride;
+                int x = 0;
+                while (x < width) {
+                    int bin = 0;
+                    int n = Math.min(8, width - x);
+                    for (int k = 0; k < n; k++) {
+                        int grey = ((data[p + rOffset] & 0xff) * 38 + (data[p + gOffset] & 0xff) * 75 + (data[p + bOffset] & 0xff) * 15) >> 7;
+                        bin = (bin << 1) | (grey > t ? 0 : 1);
+                        p += pixelStride;
+                    }
+                    dst[o++] = (byte) (bin << (8 - n));
+                    x += n;
+                }
+            }
+        }
+
+        @Override
+        void grey(int y, int[] row) {
+            int p = origin + y * scanline;
+            for (int x = 0; x < width; x++) {
+                row[x] = ((data[p + rOffset] & 0xff) * 38 + (data[p + gOffset] & 0xff) * 75 + (data[p + bOffset] & 0xff) * 15) >> 7;
+                p += pixelStride;
+            }
+        }
+    }
+
+    /**
+     * TYPE_BYTE_GRAY，灰度值按颜色模型（线性灰度到sRGB）预先查表
+     * 与getRGB结果一致；文件中读取的灰度图见{@link CPCL.ImageUtils#decoded(BufferedImage)}
+     */
+    static final class ByteGray extends ImageBinarizer {
+        private final byte[] data;
+        private final int origin;
+        private final int scanline;
+        private final int pixelStride;
+        private final byte[] lut;
+        private final int[] greyLut;
+
+        ByteGray(BufferedImage image, int threshold) {
+            super(image, threshold);
+            WritableRaster raster = image.getRaster();
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+            this.data = db.getData();
+            this.scanline = sm.getScanlineStride();
+            this.pixelStride = sm.getPixelStride();
+            this.origin = db.getOffset() - raster.getSampleModelTranslateY() * scanline - raster.getSampleModelTranslateX() * pixelStride
+                    + sm.getBandOffsets()[0];
+            ColorModel cm = image.getColorModel();
+            this.lut = new byte[256];
+            this.greyLut = new int[256];
+            byte[] pixel = new byte[1];
+            for (int v = 0; v < 256; v++) {
+                pixel[0] = (byte) v;
+                greyLut[v] = rgb2Grey(cm.getRGB(pixel));
+                lut[v] = (byte) (greyLut[v] > threshold ? 0 : 1);
+            }
+        }
+
+        @Override
+        void binarize(int y0, int y1, byte[] dst, int off, int stride) {
+            final byte[] data = this.data;
+            final byte[] lut = this.lut;
+            for (int y = y0; y < y1; y++) {
+                int p = origin + y * scanline;
+                int o = off + (y - y0) * stride;
+                int x = 0;
+                while (x < width) {
+                    int bin = 0;
+                    int n = Math.min(8, width - x);
+                    for (int k = 0; k < n; k++) {
+                        bin = (bin << 1) | lut[data[p] & 0xff];
+                        p += pixelStride;
+                    }
+                    dst[o++] = (byte) (bin << (8 - n));
+                    x += n;
+                }
+            }
+        }
+
+        @Override
+        void grey(int y, int[] row) {
+            int p = origin + y * scanline;
+            for (int x = 0; x < width; x++) {
+                row[x] = greyLut[data[p] & 0xff];
+                p += pixelStride;
+            }
+        }
+    }
+
+    /**
+     * TYPE_USHORT_GRAY，颜色模型的灰度随采样值单调递增，二分查找变为白色的采样值，之后直接比较
+     * 与getRGB结果一致
+     */
+    static final class UShortGray extends ImageBinarizer {
+        private final short[] data;
+        private final int origin;
+        private final int scanline;
+        private final int pixelStride;
+        private final ColorModel cm;
+        /**
+         * 不小于该值为白色
+         */
+        private final int cutoff;
+
+        UShortGray(BufferedImage image, int threshold) {
+            super(image, threshold);
+            WritableRaster raster = image.getRaster();
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferUShort db = (DataBufferUShort) raster.getDataBuffer();
+            this.data = db.getData();
+            this.scanline = sm.getScanlineStride();
+            this.pixelStride = sm.getPixelStride();
+            this.origin = db.getOffset() - raster.getSampleModelTranslateY() * scanline - raster.getSampleModelTranslateX() * pixelStride
+                    + sm.getBandOffsets()[0];
+            this.cm = image.getColorModel();
+            short[] pixel = new short[1];
+            int lo = 0;
+            int hi = 0x10000;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                pixel[0] = (short) mid;
+                if (rgb2Grey(cm.getRGB(pixel)) > threshold) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            this.cutoff = lo;
+        }
+
+        @Override
+        void binarize(int y0, int y1, byte[] dst, int off, int stride) {
+            final short[] data = this.data;
+            final int cutoff = this.cutoff;
+            for (int y = y0; y < y1; y++) {
+                int p = origin + y * scanline;
+                int o = off + (y - y0) * stride;
+                int x = 0;
+                while (x < width) {
+                    int bin = 0;
+                    int n = Math.min(8, width - x);
+                    for (int k = 0; k < n; k++) {
+                        bin = (bin << 1) | ((data[p] & 0xffff) >= cutoff ? 0 : 1);
+                        p += pixelStride;
+                    }
+                    dst[o++] = (byte) (bin << (8 - n));
+                    x += n;
+                }
+            }
+        }
+
+        /**
+         * 逐点经颜色模型转换，只用于抖动
+         */
+        @Override
+        void grey(int y, int[] row) {
+            short[] pixel = new short[1];
+            int p = origin + y * scanline;
+            for (int x = 0; x < width; x++) {
+                pixel[0] = data[p];
+                row[x] = rgb2Grey(cm.getRGB(pixel));
+                p += pixelStride;
+            }
+        }
+    }
+
+    /**
+     * TYPE_BYTE_INDEXED等8位索引色，调色板预先查表
+     */
+    static final class ByteIndexed extends ImageBinarizer {
+        private final byte[] data;
+        private final int origin;
+        private final int scanline;
+        private final int pixelStride;
+        private final byte[] lut;
+        private final int[] greyLut;
+
+        ByteIndexed(BufferedImage image, int threshold) {
+            super(image, threshold);
+            WritableRaster raster = image.getRaster();
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+            this.data = db.getData();
+            this.scanline = sm.getScanlineStride();
+            this.pixelStride = sm.getPixelStride();
+            this.origin = db.getOffset() - raster.getSampleModelTranslateY() * scanline - raster.getSampleModelTranslateX() * pixelStride
+                    + sm.getBandOffsets()[0];
+            this.lut = lookupTable(image.getColorModel(), 256, threshold);
+            this.greyLut = greyTable(image.getColorModel(), 256);
+        }
+
+        @Override
+        void binarize(int y0, int y1, byte[] dst, int off, int stride) {
+            final byte[] data = this.data;
+            final byte[] lut = this.lut;
+            for (int y = y0; y < y1; y++) {
+                int p = origin + y * scanline;
+                int o = off + (y - y0) * stride;
+                int x = 0;
+                while (x < width) {
+                    int bin = 0;
+                    int n = Math.min(8, width - x);
+                    for (int k = 0; k < n; k++) {
+                        bin = (bin << 1) | lut[data[p] & 0xff];
+                        p += pixelStride;
+                    }
+                    dst[o++] = (byte) (bin << (8 - n));
+                    x += n;
+                }
+            }
+        }
+
+        @Override
+        void grey(int y, int[] row) {
+            int p = origin + y * scanline;
+            for (int x = 0; x < width; x++) {
+                row[x] = greyLut[data[p] & 0xff];
+                p += pixelStride;
+            }
+        }
+    }
+
+    /**
+     * TYPE_BYTE_BINARY，1/2/4位索引色，调色板预先查表
+     * 1位且按字节对齐时整字节查表
+     */
+    static final class BytePacked extends ImageBinarizer {
+        private final byte[] data;
+        private final int scanline;
+        private final int bits;
+        private final int rowOrigin;
+        private final int bitOrigin;
+        private final byte[] lut;
+        private final byte[] byteLut;
+        private final int[] greyLut;
+
+        BytePacked(BufferedImage image, int threshold) {
+            super(image, threshold);
+            WritableRaster raster = image.getRaster();
+            MultiPixelPackedSampleModel sm = (MultiPixelPackedSampleModel) raster.getSampleModel();
+            DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+            IndexColorModel cm = (IndexColorModel) image.getColorModel();
+            int tx = -raster.getSampleModelTranslateX();
+            int ty = -raster.getSampleModelTranslateY();
+            this.data = db.getData();
+            this.scanline = sm.getScanlineStride();
+            this.bits = sm.getPixelBitStride();
+            // 行首所在字节（含x方向平移的整字节部分）及字节内的位偏移
+            this.rowOrigin = db.getOffset() + sm.getOffset(tx, ty);
+            this.bitOrigin = sm.getBitOffset(tx);
+            this.lut = lookupTable(cm, 1 << bits, threshold);
+            this.greyLut = greyTable(cm, 1 << bits);
+            if (bits == 1 && bitOrigin == 0) {
+                byteLut = new byte[256];
+                for (int v = 0; v < 256; v++) {
+                    int bin = 0;
+                    for (int k = 7; k >= 0; k--) bin = (bin << 1) | lut[(v >> k) & 1];
+                    byteLut[v] = (byte) bin;
+                }
+            } else {
+                byteLut = null;
+            }
+        }
+
+        @Override
+        void binarize(int y0, int y1, byte[] dst, int off, int stride) {
+            final byte[] data = this.data;
+            for (int y = y0; y < y1; y++) {
+                int row = rowOrigin + y * scanline;
+                int o = off + (y - y0) * stride;
+                if (byteLut != null) {
+                    for (int bx = 0; bx < byteWidth; bx++) {
+                        dst[o + bx] = byteLut[data[row + bx] & 0xff];
+                    }
+                    int tail = width & 7;
+                    if (tail != 0) dst[o + byteWidth - 1] &= (byte) (0xff << (8 - tail));
+                    continue;
+                }
+                int mask = (1 << bits) - 1;
+                int bit = bitOrigin;
+                int x = 0;
+                while (x < width) {
+                    int bin = 0;
+                    int n = Math.min(8, width - x);
+                    for (int k = 0; k < n; k++) {
+                        int index = (data[row + (bit >> 3)] >> (8 - bits - (bit & 7))) & mask;
+                        bin = (bin << 1) | lut[index];
+                        bit += bits;
+                    }
+                    dst[o++] = (byte) (bin << (8 - n));
+                    x += n;
+                }
+            }
+        }
+
+        @Override
+        void grey(int y, int[] row) {
+            int mask = (1 << bits) - 1;
+            int base = rowOrigin + y * scanline;
+            int bit = bitOrigin;
+            for (int x = 0; x < width; x++) {
+                row[x] = greyLut[(data[base + (bit >> 3)] >> (8 - bits - (bit & 7))) & mask];
+                bit += bits;
+            }
+        }
+    }
+
+    /**
+     * 其他类型，逐行getRGB
+     */
+    static final class Generic extends ImageBinarizer {
+        private final BufferedImage image;
+
+        Generic(BufferedImage image, int threshold) {
+            super(image, threshold);
+            this.image = image;
+        }
+
+        @Override
+        void binarize(int y0, int y1, byte[] dst, int off, int stride) {
+            final int t = threshold;
+            int[] pixels = new int[width];
+            for (int y = y0; y < y1; y++) {
+                image.getRGB(0, y, width, 1, pixels, 0, width);
+                int o = off + (y - y0) * stride;
+                int x = 0;
+                while (x < width) {
+                    int bin = 0;
+                    int n = Math.min(8, width - x);
+                    for (int k = 0; k < n; k++) {
+                        bin = (bin << 1) | rgb2Bin(pixels[x + k], t);
+                    }
+                    dst[o++] = (byte) (bin << (8 - n));
+                    x += n;
+                }
+            }
+        }
+
+        @Override
+        void grey(int y, int[] row) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) row[x] = rgb2Grey(row[x]);
+        }
+    }
+
+    /**
+     * Bayer 8x8有序抖动，逐行读取灰度，每行只需一行灰度缓冲，各行互不依赖，可并行
+     * 阈值作为偏移量，128时为标准抖动，增大变暗、减小变亮
+     */
+    static final class Ordered extends ImageBinarizer {
+        private static final int[] BAYER = {
+                0, 32, 8, 40, 2, 34, 10, 42,
+                48, 16, 56, 24, 50, 18, 58, 26,
+                12, 44, 4, 36, 14, 46, 6, 38,
+                60, 28, 52, 20, 62, 30, 54, 22,
+                3, 35, 11, 43, 1, 33, 9, 41,
+                51, 19, 59, 27, 49, 17, 57, 25,
+                15, 47, 7, 39, 13, 45, 5, 37,
+                63, 31, 55, 23, 61, 29, 53, 21
+        };
+
+        private final ImageBinarizer source;
+        private final int bandY;
+        private final BufferPool buffers;
+
+        Ordered(ImageBinarizer source, int bandY, BufferPool buffers) {
+            super(source);
+            this.source = source;
+            this.bandY = bandY;
+            this.buffers = buffers;
+        }
+
+        @Override
+        void binarize(int y0, int y1, byte[] dst, int off, int stride) {
+            int[] row = buffers.ints(width);
+            int bias = threshold - 128;
+            for (int y = y0; y < y1; y++) {
+                source.grey(y, row);
+                int m = ((y + bandY) & 7) << 3;
+                int o = off + (y - y0) * stride;
+                int x = 0;
+                while (x < width) {
+                    int bin = 0;
+                    int n = Math.min(8, width - x);
+                    for (int k = 0; k < n; k++, x++) {
+                        // 矩阵值0..63映射为阈值2..254
+                        int t = (BAYER[m + (x & 7)] << 2) + 2 + bias;
+                        bin = (bin << 1) | (row[x] > t ? 0 : 1);
+                    }
+                    dst[o++] = (byte) (bin << (8 - n));
+                }
+            }
+            buffers.release(row);
+        }
+
+        @Override
+        void grey(int y, int[] row) {
+            source.grey(y, row);
+        }
+    }
+
+    /**
+     * Floyd-Steinberg误差扩散，整数运算，误差放大16倍保存
+     * 逐行处理，只保留当前行和下一行两行误差，行间有依赖，始终串行
+     */
+    static final class ErrorDiffusion extends ImageBinarizer {
+        private final ImageBinarizer source;
+        private final int[] errors;
+        private final BufferPool buffers;
+
+        ErrorDiffusion(ImageBinarizer source, int[] errors, BufferPool buffers) {
+            super(source);
+            this.source = source;
+            this.errors = errors;
+            this.buffers = buffers;
+        }
+
+        @Override
+        void binarize(byte[] dst, int off, int stride, ImageOptions options) {
+            binarize(0, height, dst, off, stride);
+        }
+
+        @Override
+        void binarize(int y0, int y1, byte[] dst, int off, int stride) {
+            final int t = threshold;
+            int[] row = buffers.ints(width);
+            // 下标x+1对应第x列，两端各留一列避免边界判断
+            int n2 = width + 2;
+            int[] cur = errors;
+            if (cur == null) {
+                cur = buffers.ints(n2);
+                Arrays.fill(cur, 0, n2, 0);
+            }
+            int[] next = buffers.ints(n2);
+            Arrays.fill(next, 0, n2, 0);
+            for (int y = y0; y < y1; y++) {
+                source.grey(y, row);
+                int o = off + (y - y0) * stride;
+                int x = 0;
+                while (x < width) {
+                    int bin = 0;
+                    int n = Math.min(8, width - x);
+                    for (int k = 0; k < n; k++, x++) {
+                        int v = row[x] + ((cur[x + 1] + 8) >> 4);
+                        int err;
+                        if (v > t) {
+                            err = v - 255;
+                            bin <<= 1;
+                        } else {
+                            err = v;
+                            bin = (bin << 1) | 1;
+                        }
+                        cur[x + 2] += err * 7;
+                        next[x] += err * 3;
+                        next[x + 1] += err * 5;
+                        next[x + 2] += err;
+                    }
+                    dst[o++] = (byte) (bin << (8 - n));
+                }
+                int[] tmp = cur;
+                cur = next;
+                next = tmp;
+                Arrays.fill(next, 0, n2, 0);
+            }
+            // 误差行传回下一段，其余缓冲区归还
+            if (errors == null) {
+                buffers.release(cur);
+                buffers.release(next);
+            } else if (cur != errors) {
+                System.arraycopy(cur, 0, errors, 0, n2);
+                buffers.release(cur);
+            } else {
+                buffers.release(next);
+            }
+            buffers.release(row);
+        }
+
+        @Override
+        void grey(int y, int[] row) {
+            source.grey(y, row);
+        }
+    }
+
+}
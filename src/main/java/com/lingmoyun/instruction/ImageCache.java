@@ -0,0 +1,345 @@
+package com.lingmoyun.instruction;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 图片指令缓存
+ * <p>
+ * 以图片内容哈希 + 阈值 + 指令类型 + 影响编码结果的选项为键，缓存不含坐标的编码结果，
+ * 重复打印的Logo、印章等图片命中后只需计算哈希并写出指令头。
+ * 按最近最少使用淘汰，条目数和字节数均有上限。线程安全，可在多个请求线程间共享。
+ *
+ * @author guoweifeng
+ */
+public class ImageCache {
+
+    /**
+     * 创建缓存
+     *
+     * @param maxEntries 最大条目数
+     * @param maxBytes   缓存数据最大字节数
+     * @return ImageCache
+     */
+    public static ImageCache newCache(int maxEntries, long maxBytes) {
+        return new ImageCache(maxEntries, maxBytes);
+    }
+
+    static final int CG = 1;
+    static final int EG = 2;
+    static final int GG = 3;
+    /**
+     * 按链路模型自动选择，不缓存
+     */
+    static final int AUTO = 4;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    private ImageCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be >= 1. " + maxEntries);
+        if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be >= 1. " + maxBytes);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 缓存数据字节数
+     *
+     * @return 字节数
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ImageCache{size=" + entries.size() + ", bytes=" + bytes
+                + ", hitCount=" + hitCount + ", missCount=" + missCount + ", evictionCount=" + evictionCount + "}";
+    }
+
+    /**
+     * 命中时写出缓存的指令，未命中时以(0, 0)为坐标编码、缓存后写出
+     *
+     * @param out     输出
+     * @param x       坐标x
+     * @param y       坐标y
+     * @param key     键
+     * @param encoder 以(0, 0)为坐标编码的图片指令
+     */
+    void write(CpclOutput out, int x, int y, Key key, Supplier<byte[]> encoder) {
+        Entry entry = get(key);
+        if (entry == null) {
+            entry = Entry.parse(encoder.get());
+            put(key, entry);
+        }
+        entry.write(out, x, y);
+    }
+
+    private synchronized Entry get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null) hitCount++;
+        else missCount++;
+        return entry;
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        if (entry.bytes > maxBytes) return;
+        Entry previous = entries.put(key, entry);
+        if (previous != null) bytes -= previous.bytes;
+        bytes += entry.bytes;
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            Map.Entry<Key, Entry> eldest = it.next();
+            bytes -= eldest.getValue().bytes;
+            it.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * 缓存键
+     */
+    static Key key(BufferedImage image, int threshold, int command, int maxSize, ImageOptions options) {
+        long[] hash = hash(image);
+        int flags = (options.trimWhitespace ? 1 : 0) | (options.adaptiveStrips ? 2 : 0) | options.dither.ordinal() << 2
+                | options.compression.ordinal() << 4;
+        int stripSize = command == GG && options.adaptiveStrips ? options.maxStripSize : 0;
+        return new Key(hash[0], hash[1], image.getWidth(), image.getHeight(), threshold, command,
+                command == GG ? maxSize : 0, flags, stripSize);
+    }
+
+    static final class Key {
+        private final long h1;
+        private final long h2;
+        private final int[] params;
+
+        Key(long h1, long h2, int... params) {
+            this.h1 = h1;
+            this.h2 = h2;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return h1 == key.h1 && h2 == key.h2 && Arrays.equals(params, key.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (h1 ^ (h1 >>> 32)) * 31 + Arrays.hashCode(params);
+        }
+    }
+
+    private static final long P1 = 0x9E3779B97F4A7C15L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+
+    /**
+     * 图片内容128位哈希，直接读取INT/BYTE类型Raster的底层数组，其他类型逐行getRGB
+     * 索引色图片的底层数组为调色板下标，先计入调色板，下标相同、调色板不同的图片不会命中同一缓存
+     */
+    static long[] hash(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        long h1 = P1 ^ image.getType();
+        long h2 = P2 + ((long) w << 32 | h);
+        if (image.getColorModel() instanceof IndexColorModel) {
+            IndexColorModel icm = (IndexColorModel) image.getColorModel();
+            int[] palette = new int[icm.getMapSize()];
+            icm.getRGBs(palette);
+            h1 = (h1 ^ palette.length) * P1;
+            for (int v : palette) {
+                h1 = (h1 ^ v) * P1;
+                h2 = Long.rotateLeft(h2 + v * P1, 31) * P2;
+            }
+        }
+        WritableRaster raster = image.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        int tx = -raster.getSampleModelTranslateX();
+        int ty = -raster.getSampleModelTranslateY();
+        if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel && db.getNumBanks() == 1) {
+            int[] data = ((DataBufferInt) db).getData();
+            SinglePixelPackedSampleModel spp = (SinglePixelPackedSampleModel) sm;
+            for (int y = 0; y < h; y++) {
+                int p = db.getOffset() + spp.getOffset(tx, ty + y);
+                for (int x = 0; x < w; x++) {
+                    int v = data[p + x];
+                    h1 = (h1 ^ v) * P1;
+                    h2 = Long.rotateLeft(h2 + v * P1, 31) * P2;
+                }
+            }
+            return new long[]{mix(h1), mix(h2)};
+        }
+        if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel && db.getNumBanks() == 1) {
+            byte[] data = ((DataBufferByte) db).getData();
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            int scanline = csm.getScanlineStride();
+            int rowBytes = w * csm.getPixelStride();
+            for (int y = 0; y < h; y++) {
+                int p = db.getOffset() + (ty + y) * scanline + tx * csm.getPixelStride();
+                for (int i = 0; i < rowBytes; i++) {
+                    int v = data[p + i];
+                    h1 = (h1 ^ v) * P1;
+                    h2 = Long.rotateLeft(h2 + v * P1, 31) * P2;
+                }
+            }
+            return new long[]{mix(h1), mix(h2)};
+        }
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w; x++) {
+                int v = row[x];
+                h1 = (h1 ^ v) * P1;
+                h2 = Long.rotateLeft(h2 + v * P1, 31) * P2;
+            }
+        }
+        return new long[]{mix(h1), mix(h2)};
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 不含坐标的图片指令
+     * 每条指令拆为"CG bw h "、相对坐标dx dy、" data\n"三部分，写出时加上实际坐标
+     */
+    static final class Entry {
+        private final byte[][] heads;
+        private final byte[][] tails;
+        private final int[] dx;
+        private final int[] dy;
+        final long bytes;
+
+        private Entry(byte[][] heads, byte[][] tails, int[] dx, int[] dy, long bytes) {
+            this.heads = heads;
+            this.tails = tails;
+            this.dx = dx;
+            this.dy = dy;
+            this.bytes = bytes;
+        }
+
+        /**
+         * 解析以(0, 0)为坐标编码的CG/EG/GG指令
+         */
+        static Entry parse(byte[] encoded) {
+            int count = 0;
+            int[] starts = new int[8];
+            int p = 0;
+            while (p < encoded.length) {
+                if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+                starts[count++] = p;
+                p = next(encoded, p);
+            }
+            byte[][] heads = new byte[count][];
+            byte[][] tails = new byte[count][];
+            int[] dx = new int[count];
+            int[] dy = new int[count];
+            long bytes = 64;
+            for (int i = 0; i < count; i++) {
+                int start = starts[i];
+                int end = i + 1 < count ? starts[i + 1] : encoded.length;
+                // "CG bw h x y ..."
+                int q = skip(encoded, skip(encoded, skip(encoded, start)));
+                heads[i] = Arrays.copyOfRange(encoded, start, q);
+                int yStart = skip(encoded, q);
+                dx[i] = parseInt(encoded, q, yStart - 1);
+                int tail = skip(encoded, yStart) - 1;
+                dy[i] = parseInt(encoded, yStart, tail);
+                tails[i] = Arrays.copyOfRange(encoded, tail, end);
+                bytes += heads[i].length + tails[i].length + 48;
+            }
+            return new Entry(heads, tails, dx, dy, bytes);
+        }
+
+        void write(CpclOutput out, int x, int y) {
+            for (int i = 0; i < heads.length; i++) {
+                out.write(heads[i]).writeInt(x + dx[i]).write(' ').writeInt(y + dy[i]).write(tails[i]);
+            }
+        }
+
+        /**
+         * 跳过一个以空格结尾的字段，返回下一字段起始位置
+         */
+        private static int skip(byte[] b, int p) {
+            while (b[p] != ' ') p++;
+            return p + 1;
+        }
+
+        private static int parseInt(byte[] b, int from, int to) {
+            boolean negative = b[from] == '-';
+            int v = 0;
+            for (int i = negative ? from + 1 : from; i < to; i++) v = v * 10 + (b[i] - '0');
+            return negative ? -v : v;
+        }
+
+        /**
+         * 下一条指令起始位置
+         */
+        private static int next(byte[] b, int p) {
+            byte c = b[p];
+            int q = skip(b, p);
+            int byteWidth = parseInt(b, q, (q = skip(b, q)) - 1);
+            int height = parseInt(b, q, (q = skip(b, q)) - 1);
+            q = skip(b, skip(b, q));
+            int length;
+            if (c == 'G') {
+                length = parseInt(b, q, (q = skip(b, q)) - 1);
+            } else if (c == 'E') {
+                length = byteWidth * height * 2;
+            } else {
+                length = byteWidth * height;
+            }
+            return q + length + CPCL.LINE_BYTES.length;
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.lingmoyun.instruction;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 图片指令选项
+ * <p>
+ * 配置完成后只读使用，可在多个线程、多个Builder之间共享。
+ *
+ * @author guoweifeng
+ */
+public class ImageOptions {
+
+    /**
+     * 默认并行阈值，像素数，约为1000x1000
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1_000_000;
+
+    /**
+     * 自适应分段时单段未压缩数据默认最大值，单位：字节
+     */
+    public static final int DEFAULT_MAX_STRIP_SIZE = 65536;
+
+    /**
+     * 图片文件分段解码时每段默认像素数，约为2000x1000
+     */
+    public static final int DEFAULT_DECODE_BAND_PIXELS = 2_000_000;
+
+    static final ImageOptions DEFAULT = new ImageOptions();
+
+    /**
+     * 创建默认选项，所有优化均关闭，结果与不传选项一致
+     *
+     * @return ImageOptions
+     */
+    public static ImageOptions newOptions() {
+        return new ImageOptions();
+    }
+
+    int parallelism = 1;
+    ForkJoinPool pool;
+    int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    boolean adaptiveStrips;
+    int maxStripSize = DEFAULT_MAX_STRIP_SIZE;
+    boolean trimWhitespace;
+    Dither dither = Dither.NONE;
+    int decodeBandPixels = DEFAULT_DECODE_BAND_PIXELS;
+    ImageCache cache;
+    BufferPool bufferPool = BufferPool.NONE;
+    LinkModel link = LinkModel.DEFAULT;
+    Compression compression = Compression.FAST;
+
+    /**
+     * 并行度，大于1时大图按行分段并行二值化，GG指令各段并行压缩，结果与串行一致
+     *
+     * @param parallelism 并行度，默认1（串行）
+     * @return ImageOptions
+     */
+    public ImageOptions parallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be >= 1. " + parallelism);
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * 并行任务使用的线程池
+     *
+     * @param pool 线程池，null使用{@link ForkJoinPool#commonPool()}
+     * @return ImageOptions
+     */
+    public ImageOptions pool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * 并行阈值，像素数(宽x高)小于该值的图片始终串行处理
+     *
+     * @param pixels 像素数，默认{@link #DEFAULT_PARALLEL_THRESHOLD}
+     * @return ImageOptions
+     */
+    public ImageOptions parallelThreshold(int pixels) {
+        if (pixels < 0) throw new IllegalArgumentException("parallelThreshold must be >= 0. " + pixels);
+        this.parallelThreshold = pixels;
+        return this;
+    }
+
+    /**
+     * GG指令自适应分段
+     * 开启后maxSize限制每条GG指令的压缩数据大小，按实际压缩结果决定分段：
+     * 空白、重复等易压缩区域合并为更高的段，以减少指令数量和总字节数；
+     * 不可压缩区域按maxSize切分并输出CG指令。
+     *
+     * @param adaptiveStrips 是否开启，默认关闭（按maxSize等高切分）
+     * @return ImageOptions
+     */
+    public ImageOptions adaptiveStrips(boolean adaptiveStrips) {
+        this.adaptiveStrips = adaptiveStrips;
+        return this;
+    }
+
+    /**
+     * 自适应分段时单段未压缩数据最大值，即打印机解压缓冲区大小
+     *
+     * @param bytes 单位：字节，默认{@link #DEFAULT_MAX_STRIP_SIZE}
+     * @return ImageOptions
+     */
+    public ImageOptions maxStripSize(int bytes) {
+        if (bytes < 1) throw new IllegalArgumentException("maxStripSize must be >= 1. " + bytes);
+        this.maxStripSize = bytes;
+        return this;
+    }
+
+    /**
+     * 去除空白
+     * 开启后按空白行将位图拆分为多条指令，去掉全白的行和每条指令左右全白的列(按字节)，
+     * 并相应调整每条指令的坐标，打印结果与不开启时逐点一致。
+     *
+     * @param trimWhitespace 是否开启，默认关闭
+     * @return ImageOptions
+     */
+    public ImageOptions trimWhitespace(boolean trimWhitespace) {
+        this.trimWhitespace = trimWhitespace;
+        return this;
+    }
+
+    /**
+     * 抖动方式，用于照片、灰度Logo等连续色调图片
+     * 抖动逐行处理，只需一到两行缓冲，阈值含义见{@link Dither}
+     *
+     * @param dither 抖动方式，默认{@link Dither#NONE}
+     * @return ImageOptions
+     */
+    public ImageOptions dither(Dither dither) {
+        if (dither == null) throw new NullPointerException("dither");
+        this.dither = dither;
+        return this;
+    }
+
+    /**
+     * 按文件路径打印图片时分段解码，每段解码后立即二值化，内存中只保留一段像素
+     * 像素数不超过该值的图片整张解码
+     *
+     * @param pixels 每段像素数，默认{@link #DEFAULT_DECODE_BAND_PIXELS}，0表示整张解码
+     * @return ImageOptions
+     */
+    public ImageOptions decodeBandPixels(int pixels) {
+        if (pixels < 0) throw new IllegalArgumentException("decodeBandPixels must be >= 0. " + pixels);
+        this.decodeBandPixels = pixels;
+        return this;
+    }
+
+    /**
+     * 图片指令缓存，重复打印同一图片时复用编码结果，只重写坐标
+     *
+     * @param cache 缓存，可在多个选项之间共享，默认null（不缓存）
+     * @return ImageOptions
+     */
+    public ImageOptions cache(ImageCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * 临时缓冲区池，位图、误差行、灰度行等缓冲区用完归还，供后续图片复用
+     *
+     * @param bufferPool 缓冲区池，默认null（每次新分配）
+     * @return ImageOptions
+     */
+    public ImageOptions bufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool == null ? BufferPool.NONE : bufferPool;
+        return this;
+    }
+
+    /**
+     * 打印机链路，自动选择图片指令时按传输和解压耗时选择CG、EG或GG
+     *
+     * @param link 链路模型，默认null（二进制安全，不计解压耗时，GG压缩后更小时使用GG）
+     * @return ImageOptions
+     */
+    public ImageOptions link(LinkModel link) {
+        this.link = link == null ? LinkModel.DEFAULT : link;
+        return this;
+    }
+
+    /**
+     * GG指令压缩方式
+     *
+     * @param compression 压缩方式，默认{@link Compression#FAST}
+     * @return ImageOptions
+     */
+    public ImageOptions compression(Compression compression) {
+        if (compression == null) throw new NullPointerException("compression");
+        this.compression = compression;
+        return this;
+    }
+
+    boolean isParallel(int width, int height) {
+        return parallelism > 1 && (long) width * height >= parallelThreshold;
+    }
+
+    ForkJoinPool pool() {
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * 抖动方式
+     */
+    public enum Dither {
+        /**
+         * 不抖动，灰度大于阈值为白色，否则为黑色
+         */
+        NONE,
+        /**
+         * Floyd-Steinberg误差扩散，层次最细，行间有依赖，始终串行
+         * 阈值为黑白判定点
+         */
+        FLOYD_STEINBERG,
+        /**
+         * Bayer 8x8有序抖动，纹理规则，各行独立，可并行
+         * 阈值作为偏移量，128为标准抖动，增大变暗、减小变亮
+         */
+        BAYER
+    }
+
+    /**
+     * GG指令压缩方式，两种方式输出同一格式，打印机均可解压
+     */
+    public enum Compression {
+        /**
+         * LZO1X-1，速度快
+         */
+        FAST,
+        /**
+         * 高压缩率，在整个窗口内查找最长匹配，压缩较慢，数据更小，适用于蓝牙、串口等慢速链路
+         */
+        HIGH
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.lingmoyun.instruction;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * 图片指令大小预估，用于{@link CpclOutput.Counter}
+ * <p>
+ * 自动选择时先按链路模型确定是否只能使用EG或不必压缩。CG/EG按尺寸计算，与实际输出一致（去除空白时为上限）；
+ * GG按maxSize分段后等距抽取约1/{@link #SAMPLE_RATIO}的段（至少{@link #MIN_SAMPLE_STRIPS}段）压缩，
+ * 其余段按抽样的压缩率估算，不编码整张图片。
+ *
+ * @author guoweifeng
+ */
+final class ImageSizer {
+
+    /**
+     * GG指令最少抽样段数
+     */
+    static final int MIN_SAMPLE_STRIPS = 4;
+
+    /**
+     * GG指令抽样比例，每SAMPLE_RATIO段抽取一段
+     */
+    static final int SAMPLE_RATIO = 8;
+
+    private ImageSizer() {
+    }
+
+    static void image(CpclOutput.Counter out, int command, int x, int y, int maxSize, BufferedImage image, Integer threshold, ImageOptions options) {
+        int byteWidth = CPCL.ImageUtils.byteWidth(image.getWidth());
+        int height = image.getHeight();
+        command = resolve(command, options);
+        if (command == ImageCache.CG || command == ImageCache.EG) {
+            raw(out, command, byteWidth, height, x, y, options);
+            return;
+        }
+        ImageBinarizer binarizer = ImageBinarizer.of(image, threshold == null ? CPCL.DEFAULT_THRESHOLD : threshold, options);
+        byte[] buffer = options.bufferPool.bytes(byteWidth * stripRows(byteWidth, height, maxSize));
+        gg(out, byteWidth, height, x, y, maxSize, command == ImageCache.AUTO, options, (r0, rows) -> {
+            binarizer.binarize(r0, r0 + rows, buffer, 0, byteWidth);
+            return compressedSize(buffer, 0, byteWidth, byteWidth, rows, options);
+        });
+        options.bufferPool.release(buffer);
+    }
+
+    static void bitmap(CpclOutput.Counter out, int command, int x, int y, int maxSize, Bitmap bitmap, ImageOptions options) {
+        command = resolve(command, options);
+        if (command == ImageCache.CG || command == ImageCache.EG) {
+            raw(out, command, bitmap.byteWidth, bitmap.height, x, y, options);
+            return;
+        }
+        gg(out, bitmap.byteWidth, bitmap.height, x, y, maxSize, command == ImageCache.AUTO, options, (r0, rows) ->
+                compressedSize(bitmap.data, bitmap.off + r0 * bitmap.stride, bitmap.stride, bitmap.byteWidth, rows, options));
+    }
+
+    /**
+     * 图片文件，CG/EG只读取文件头中的尺寸，GG只解码抽样的行
+     */
+    static void file(CpclOutput.Counter out, int command, int x, int y, int maxSize, String filename, Integer threshold, ImageOptions options) {
+        int resolved = resolve(command, options);
+        BandedImageReader.open(filename, reader -> {
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            int byteWidth = CPCL.ImageUtils.byteWidth(width);
+            if (resolved == ImageCache.CG || resolved == ImageCache.EG) {
+                raw(out, resolved, byteWidth, height, x, y, options);
+                return null;
+            }
+            int t = threshold == null ? CPCL.DEFAULT_THRESHOLD : threshold;
+            BandedImageReader.Bands bands = new BandedImageReader.Bands(reader);
+            byte[] buffer = options.bufferPool.bytes(byteWidth * stripRows(byteWidth, height, maxSize));
+            gg(out, byteWidth, height, x, y, maxSize, resolved == ImageCache.AUTO, options, (r0, rows) -> {
+                BufferedImage band;
+                try {
+                    band = bands.read(r0, rows);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("read image error. " + filename);
+                }
+                ImageBinarizer.of(band, t, options, r0, null).binarize(0, rows, buffer, 0, byteWidth);
+                return compressedSize(buffer, 0, byteWidth, byteWidth, rows, options);
+            });
+            options.bufferPool.release(buffer);
+            return null;
+        });
+    }
+
+    /**
+     * 自动选择时，链路不能传输二进制数据为EG，不值得压缩为CG，否则仍为自动选择
+     */
+    private static int resolve(int command, ImageOptions options) {
+        if (command != ImageCache.AUTO) return command;
+        if (!options.link.binarySafe) return ImageCache.EG;
+        if (!options.link.mayCompress()) return ImageCache.CG;
+        return command;
+    }
+
+    /**
+     * CG/EG，去除空白时无法按尺寸得到准确大小，计为估算值
+     */
+    private static void raw(CpclOutput.Counter out, int command, int byteWidth, int height, int x, int y, ImageOptions options) {
+        long before = out.size();
+        long length = (long) byteWidth * height;
+        if (command == ImageCache.CG) {
+            BitmapEncoder.header(out, "CG ", byteWidth, height, x, y);
+            out.skip(length);
+        } else {
+            BitmapEncoder.header(out, "EG ", byteWidth, height, x, y);
+            out.skip(length << 1);
+        }
+        out.write(CPCL.LINE_BYTES);
+        if (options.trimWhitespace) out.markEstimated(out.size() - before);
+    }
+
+    interface Sampler {
+        /**
+         * [r0, r0 + rows)行的压缩数据长度
+         */
+        int compressedSize(int r0, int rows);
+    }
+
+    /**
+     * 分段与{@link BitmapEncoder#gg}/{@link BitmapEncoder#auto}一致，抽样段按实际压缩长度计算，其余段按抽样压缩率估算
+     * 自适应分段时按估算的压缩数据总量和maxSize推算指令数，自动选择时按链路模型逐段选择并合并相邻的CG段
+     */
+    private static void gg(CpclOutput.Counter out, int byteWidth, int height, int x, int y, int maxSize, boolean auto, ImageOptions options, Sampler sampler) {
+        long before = out.size();
+        int maxHeight = Math.max(1, maxSize / byteWidth);
+        int count = (height + maxHeight - 1) / maxHeight;
+        int samples = Math.min(count, Math.max(MIN_SAMPLE_STRIPS, count / SAMPLE_RATIO));
+        int[] sampled = new int[count];
+        long sampledRaw = 0;
+        long sampledCompressed = 0;
+        for (int i = 0; i < samples; i++) {
+            int n = samples == 1 ? 0 : (int) ((long) i * (count - 1) / (samples - 1));
+            int rows = stripHeight(n, count, maxHeight, height);
+            int raw = byteWidth * rows;
+            int len = sampler.compressedSize(n * maxHeight, rows);
+            if (len <= 0 || len >= raw) len = raw;
+            sampled[n] = len;
+            sampledRaw += raw;
+            sampledCompressed += len;
+        }
+        double ratio = sampledRaw == 0 ? 1 : (double) sampledCompressed / sampledRaw;
+        if (options.adaptiveStrips && !auto && ratio < 1) {
+            long total = (long) byteWidth * height;
+            long compressed = Math.max(1, Math.round(total * ratio));
+            int maxRows = Math.max(maxHeight, options.maxStripSize / byteWidth);
+            long commands = Math.max((compressed + maxSize - 1) / maxSize, (height + maxRows - 1) / maxRows);
+            int rows = (int) ((height + commands - 1) / commands);
+            for (long c = 0; c < commands; c++) {
+                int r0 = (int) (c * rows);
+                int len = (int) (compressed / commands + (c < compressed % commands ? 1 : 0));
+                ggCommand(out, byteWidth, Math.min(rows, height - r0), x, y + r0, len);
+            }
+        } else {
+            // 待输出的CG段起始行，仅自动选择时合并
+            int cgFrom = -1;
+            for (int n = 0; n < count; n++) {
+                int r0 = n * maxHeight;
+                int rows = stripHeight(n, count, maxHeight, height);
+                int raw = byteWidth * rows;
+                int len = sampled[n] > 0 ? sampled[n] : (int) Math.round(raw * ratio);
+                boolean useGG = auto ? options.link.preferGG(raw, len) : len > 0 && len < raw;
+                if (useGG) {
+                    if (cgFrom >= 0) cgCommand(out, byteWidth, r0 - cgFrom, x, y + cgFrom);
+                    cgFrom = -1;
+                    ggCommand(out, byteWidth, rows, x, y + r0, len);
+                } else if (!auto) {
+                    cgCommand(out, byteWidth, rows, x, y + r0);
+                } else if (cgFrom < 0) {
+                    cgFrom = r0;
+                }
+            }
+            if (cgFrom >= 0) cgCommand(out, byteWidth, height - cgFrom, x, y + cgFrom);
+        }
+        out.markEstimated(out.size() - before);
+    }
+
+    private static void cgCommand(CpclOutput.Counter out, int byteWidth, int height, int x, int y) {
+        BitmapEncoder.header(out, "CG ", byteWidth, height, x, y);
+        out.skip((long) byteWidth * height).write(CPCL.LINE_BYTES);
+    }
+
+    private static void ggCommand(CpclOutput.Counter out, int byteWidth, int height, int x, int y, int len) {
+        BitmapEncoder.header(out, "GG ", byteWidth, height, x, y);
+        out.writeInt(len).write(' ');
+        out.skip(len).write(CPCL.LINE_BYTES);
+        out.addDecompressed((long) byteWidth * height);
+    }
+
+    private static int compressedSize(byte[] data, int off, int stride, int byteWidth, int height, ImageOptions options) {
+        byte[] compressed = options.bufferPool.bytes(Lzo1x.maxCompressedLength(byteWidth * height));
+        int len = BitmapEncoder.compress(data, off, stride, byteWidth, height, compressed, options);
+        options.bufferPool.release(compressed);
+        return len;
+    }
+
+    private static int stripRows(int byteWidth, int height, int maxSize) {
+        return Math.min(height, Math.max(1, maxSize / Math.max(1, byteWidth)));
+    }
+
+    private static int stripHeight(int n, int count, int maxHeight, int height) {
+        return n == count - 1 ? height - maxHeight * n : maxHeight;
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.lingmoyun.instruction;
+
+/**
+ * 链路模型，用于估算指令的传输时间，以及{@link CpclBuilder#image(int, int, java.awt.image.BufferedImage)}选择图片指令
+ * <p>
+ * 配置完成后只读使用，可在多个线程之间共享。
+ * <pre>
+ * LinkModel serial = LinkModel.serial(115200);
+ * LinkModel wifi = LinkModel.newModel(1_000_000).latencyMillis(20).decompressBytesPerSecond(400_000);
+ * LinkModel text = LinkModel.newModel(50_000).binarySafe(false);
+ * </pre>
+ *
+ * @author guoweifeng
+ */
+public class LinkModel {
+
+    /**
+     * 默认链路，二进制安全，不计打印机解压耗时，即GG压缩后更小时使用GG
+     */
+    static final LinkModel DEFAULT = new LinkModel(1_000_000);
+
+    /**
+     * 创建链路模型
+     *
+     * @param bytesPerSecond 有效传输速率，单位：字节/秒
+     * @return LinkModel
+     */
+    public static LinkModel newModel(long bytesPerSecond) {
+        return new LinkModel(bytesPerSecond);
+    }
+
+    /**
+     * 串口链路，按8N1计算，每字节10位
+     *
+     * @param baud 波特率，如9600、115200
+     * @return LinkModel
+     */
+    public static LinkModel serial(int baud) {
+        if (baud < 10) throw new IllegalArgumentException("baud must be >= 10. " + baud);
+        return new LinkModel(baud / 10);
+    }
+
+    private final long bytesPerSecond;
+    long latencyMillis;
+    long decompressBytesPerSecond;
+    boolean binarySafe = true;
+
+    private LinkModel(long bytesPerSecond) {
+        if (bytesPerSecond < 1) throw new IllegalArgumentException("bytesPerSecond must be >= 1. " + bytesPerSecond);
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * 每个任务的固定延迟，如建立连接、往返时间
+     *
+     * @param millis 单位：毫秒，默认0
+     * @return LinkModel
+     */
+    public LinkModel latencyMillis(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("latencyMillis must be >= 0. " + millis);
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * 打印机GG指令解压速度，按解压后的位图字节数计
+     * 链路越快，解压耗时占比越高，解压速度不高于传输速率时GG不会比CG更快
+     *
+     * @param bytesPerSecond 单位：字节/秒，默认0（不计解压耗时）
+     * @return LinkModel
+     */
+    public LinkModel decompressBytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 0) throw new IllegalArgumentException("decompressBytesPerSecond must be >= 0. " + bytesPerSecond);
+        this.decompressBytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * 链路能否传输任意字节，7位串口、只能传输文本的通道等不能传输CG/GG的二进制数据，只能使用EG
+     *
+     * @param binarySafe 默认true
+     * @return LinkModel
+     */
+    public LinkModel binarySafe(boolean binarySafe) {
+        this.binarySafe = binarySafe;
+        return this;
+    }
+
+    public long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long latencyMillis() {
+        return latencyMillis;
+    }
+
+    public long decompressBytesPerSecond() {
+        return decompressBytesPerSecond;
+    }
+
+    public boolean isBinarySafe() {
+        return binarySafe;
+    }
+
+    /**
+     * 传输时间
+     *
+     * @param bytes 字节数
+     * @return 单位：毫秒，向上取整
+     */
+    public long transferMillis(long bytes) {
+        return latencyMillis + (bytes * 1000 + bytesPerSecond - 1) / bytesPerSecond;
+    }
+
+    /**
+     * 打印机解压时间
+     *
+     * @param bytes 解压后的字节数
+     * @return 单位：毫秒，向上取整，不计解压耗时返回0
+     */
+    public long decompressMillis(long bytes) {
+        if (decompressBytesPerSecond == 0) return 0;
+        return (bytes * 1000 + decompressBytesPerSecond - 1) / decompressBytesPerSecond;
+    }
+
+    /**
+     * GG是否可能比CG更快，解压速度不高于传输速率时不必尝试压缩
+     */
+    boolean mayCompress() {
+        return binarySafe && (decompressBytesPerSecond == 0 || decompressBytesPerSecond > bytesPerSecond);
+    }
+
+    /**
+     * raw字节的位图压缩为compressed字节后，GG（传输 + 解压）是否比CG（传输）更快
+     */
+    boolean preferGG(int raw, int compressed) {
+        if (compressed <= 0 || compressed >= raw) return false;
+        if (decompressBytesPerSecond == 0) return true;
+        return (double) compressed / bytesPerSecond + (double) raw / decompressBytesPerSecond < (double) raw / bytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "LinkModel{bytesPerSecond=" + bytesPerSecond + ", latencyMillis=" + latencyMillis
+                + ", decompressBytesPerSecond=" + decompressBytesPerSecond + ", binarySafe=" + binarySafe + "}";
+    }
+
+}
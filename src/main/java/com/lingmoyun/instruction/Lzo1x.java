@@ -0,0 +1,319 @@
+package com.lingmoyun.instruction;
+
+import java.util.Arrays;
+
+/**
+ * LZO1X压缩，输出标准LZO1X数据流，即GG指令的压缩格式，可由lzo1x_decompress解压
+ * <p>
+ * {@link #compress}与LZO1X-1算法一致：按49152字节分块，每块使用16K项哈希字典贪心匹配。
+ * {@link #compressHigh}为高压缩率模式：哈希链在整个窗口(48K)内查找最长匹配并延迟一步决定，
+ * 压缩更慢，输出更小，格式相同，适用于带宽受限的链路。
+ * 压缩结果写入调用方提供的缓冲区，字典等工作内存每个线程一份，循环复用，压缩过程不分配内存。
+ *
+ * @author guoweifeng
+ */
+final class Lzo1x {
+
+    private static final int M2_MAX_LEN = 8;
+    private static final int M3_MAX_LEN = 33;
+    private static final int M4_MAX_LEN = 9;
+    private static final int M2_MAX_OFFSET = 0x0800;
+    private static final int M3_MAX_OFFSET = 0x4000;
+    private static final int M4_MAX_OFFSET = 0xbfff;
+    private static final int M3_MARKER = 32;
+    private static final int M4_MARKER = 16;
+
+    /**
+     * LZO1X-1字典位数及分块大小
+     */
+    private static final int D_BITS = 14;
+    private static final int BLOCK_SIZE = 49152;
+
+    /**
+     * 高压缩率模式：哈希位数、每个位置最多比较的候选数、足够长的匹配（不再继续查找）
+     */
+    private static final int HASH_BITS = 15;
+    private static final int MAX_CHAIN = 128;
+    private static final int NICE_LENGTH = 256;
+    private static final int WINDOW_MASK = 0xffff;
+
+    private static final ThreadLocal<Lzo1x> WORK = new ThreadLocal<Lzo1x>() {
+        @Override
+        protected Lzo1x initialValue() {
+            return new Lzo1x();
+        }
+    };
+
+    private final char[] dict = new char[1 << D_BITS];
+    private int[] head;
+    private int[] chain;
+    private int op;
+
+    private Lzo1x() {
+    }
+
+    /**
+     * 压缩结果最大长度
+     *
+     * @param length 源数据长度
+     * @return 压缩缓冲区所需长度
+     */
+    static int maxCompressedLength(int length) {
+        return length + (length >> 4) + 64 + 3;
+    }
+
+    /**
+     * LZO1X-1压缩
+     *
+     * @param src    源数据
+     * @param off    源数据起始位置
+     * @param len    源数据长度
+     * @param dst    压缩缓冲区，剩余长度不小于{@link #maxCompressedLength(int)}
+     * @param dstOff 压缩缓冲区起始位置
+     * @return 压缩数据长度
+     */
+    static int compress(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        return WORK.get().compress1(src, off, len, dst, dstOff);
+    }
+
+    /**
+     * 高压缩率压缩，输出格式与{@link #compress}相同
+     *
+     * @param src    源数据
+     * @param off    源数据起始位置
+     * @param len    源数据长度
+     * @param dst    压缩缓冲区，剩余长度不小于{@link #maxCompressedLength(int)}
+     * @param dstOff 压缩缓冲区起始位置
+     * @return 压缩数据长度
+     */
+    static int compressHigh(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        return WORK.get().compress999(src, off, len, dst, dstOff);
+    }
+
+    private int compress1(byte[] in, int off, int len, byte[] out, int dstOff) {
+        int ip = off;
+        op = dstOff;
+        int l = len;
+        int t = 0;
+        while (l > 20) {
+            int ll = Math.min(l, BLOCK_SIZE);
+            Arrays.fill(dict, (char) 0);
+            t = block(in, ip, ll, out, t);
+            ip += ll;
+            l -= ll;
+        }
+        t += l;
+        if (t > 0) {
+            op = literals(in, off + len - t, t, out, op, op == dstOff);
+        }
+        return end(out, op) - dstOff;
+    }
+
+    /**
+     * 压缩一块，返回未输出的结尾字面量数，并入下一块或最后输出
+     */
+    private int block(byte[] in, int base, int inLen, byte[] out, int ti) {
+        final char[] dict = this.dict;
+        final int ipEnd = base + inLen - 20;
+        int op = this.op;
+        int ip = base;
+        int ii = ip;
+        ip += ti < 4 ? 4 - ti : 0;
+        boolean matched = false;
+        for (; ; ) {
+            if (!matched) ip += 1 + ((ip - ii) >> 5);
+            matched = false;
+            if (ip >= ipEnd) break;
+            int dv = le32(in, ip);
+            int dindex = (dv * 0x1824429d) >>> (32 - D_BITS);
+            int mPos = base + dict[dindex];
+            dict[dindex] = (char) (ip - base);
+            if (dv != le32(in, mPos)) continue;
+
+            ii -= ti;
+            ti = 0;
+            int t = ip - ii;
+            if (t != 0) op = literals(in, ii, t, out, op, false);
+            int mLen = 4;
+            if (in[ip + mLen] == in[mPos + mLen]) {
+                do {
+                    mLen++;
+                    if (ip + mLen >= ipEnd) break;
+                } while (in[ip + mLen] == in[mPos + mLen]);
+            }
+            op = match(out, op, mLen, ip - mPos);
+            ip += mLen;
+            ii = ip;
+            matched = true;
+        }
+        this.op = op;
+        return base + inLen - (ii - ti);
+    }
+
+    private int compress999(byte[] in, int off, int len, byte[] out, int dstOff) {
+        if (head == null) {
+            head = new int[1 << HASH_BITS];
+            chain = new int[WINDOW_MASK + 1];
+        }
+        final int[] head = this.head;
+        final int[] chain = this.chain;
+        Arrays.fill(head, -1);
+        final int end = off + len;
+        // 最后3字节无法计算哈希，作为字面量
+        final int limit = end - 3;
+        int op = dstOff;
+        int ii = off;
+        int ip = off;
+        int inserted = off;
+        while (ip < limit) {
+            inserted = insert(in, inserted, ip + 1, limit, head, chain);
+            long best = longestMatch(in, ip, end, off, head, chain);
+            int mLen = (int) (best >>> 32);
+            if (mLen == 0) {
+                ip++;
+                continue;
+            }
+            // 延迟一步：下一位置的匹配更长时，当前字节作为字面量
+            if (mLen < NICE_LENGTH && ip + 1 < limit) {
+                inserted = insert(in, inserted, ip + 2, limit, head, chain);
+                long next = longestMatch(in, ip + 1, end, off, head, chain);
+                if ((int) (next >>> 32) > mLen) {
+                    ip++;
+                    continue;
+                }
+            }
+            int t = ip - ii;
+            if (t != 0) op = literals(in, ii, t, out, op, op == dstOff);
+            op = match(out, op, mLen, (int) best);
+            ip += mLen;
+            ii = ip;
+        }
+        int t = end - ii;
+        if (t > 0) op = literals(in, ii, t, out, op, op == dstOff);
+        return end(out, op) - dstOff;
+    }
+
+    /**
+     * 将[from, to)位置加入哈希链，返回to
+     */
+    private static int insert(byte[] in, int from, int to, int limit, int[] head, int[] chain) {
+        int stop = Math.min(to, limit);
+        for (int p = from; p < stop; p++) {
+            int h = hash3(in, p);
+            chain[p & WINDOW_MASK] = head[h];
+            head[h] = p;
+        }
+        return Math.max(from, stop);
+    }
+
+    /**
+     * ip处的最长匹配，高32位长度，低32位距离，无可用匹配返回0
+     * 长度3的匹配只在距离不超过M2_MAX_OFFSET时使用，其他编码方式不比字面量更短
+     */
+    private static long longestMatch(byte[] in, int ip, int end, int off, int[] head, int[] chain) {
+        int maxLen = end - ip;
+        int bestLen = 0;
+        int bestOff = 0;
+        int candidate = head[hash3(in, ip)];
+        if (candidate == ip) candidate = chain[ip & WINDOW_MASK];
+        for (int n = 0; n < MAX_CHAIN && candidate >= off; n++) {
+            int distance = ip - candidate;
+            if (distance <= 0 || distance > M4_MAX_OFFSET) break;
+            if (in[candidate + bestLen] == in[ip + bestLen] || bestLen == 0) {
+                int l = 0;
+                while (l < maxLen && in[candidate + l] == in[ip + l]) l++;
+                if (l > bestLen && (l >= 4 || l == 3 && distance <= M2_MAX_OFFSET)) {
+                    bestLen = l;
+                    bestOff = distance;
+                    if (l >= NICE_LENGTH || l == maxLen) break;
+                }
+            }
+            int next = chain[candidate & WINDOW_MASK];
+            if (next >= candidate) break;
+            candidate = next;
+        }
+        return bestLen == 0 ? 0 : ((long) bestLen << 32) | bestOff;
+    }
+
+    private static int hash3(byte[] in, int p) {
+        int v = (in[p] & 0xff) | (in[p + 1] & 0xff) << 8 | (in[p + 2] & 0xff) << 16;
+        return (v * 0x1824429d) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * 字面量，t &lt;= 3时记入上一条匹配指令的低2位
+     *
+     * @param first 是否为数据流的第一条指令，可使用17 + t的短格式
+     */
+    private static int literals(byte[] in, int ii, int t, byte[] out, int op, boolean first) {
+        if (first && t <= 238) {
+            out[op++] = (byte) (17 + t);
+        } else if (t <= 3) {
+            out[op - 2] |= (byte) t;
+        } else if (t <= 18) {
+            out[op++] = (byte) (t - 3);
+        } else {
+            int tt = t - 18;
+            out[op++] = 0;
+            while (tt > 255) {
+                tt -= 255;
+                out[op++] = 0;
+            }
+            out[op++] = (byte) tt;
+        }
+        System.arraycopy(in, ii, out, op, t);
+        return op + t;
+    }
+
+    private static int match(byte[] out, int op, int mLen, int mOff) {
+        if (mLen <= M2_MAX_LEN && mOff <= M2_MAX_OFFSET) {
+            mOff -= 1;
+            out[op++] = (byte) (((mLen - 1) << 5) | ((mOff & 7) << 2));
+            out[op++] = (byte) (mOff >>> 3);
+        } else if (mOff <= M3_MAX_OFFSET) {
+            mOff -= 1;
+            if (mLen <= M3_MAX_LEN) {
+                out[op++] = (byte) (M3_MARKER | (mLen - 2));
+            } else {
+                op = length(out, op, M3_MARKER, mLen - M3_MAX_LEN);
+            }
+            out[op++] = (byte) (mOff << 2);
+            out[op++] = (byte) (mOff >>> 6);
+        } else {
+            mOff -= 0x4000;
+            if (mLen <= M4_MAX_LEN) {
+                out[op++] = (byte) (M4_MARKER | ((mOff >>> 11) & 8) | (mLen - 2));
+            } else {
+                op = length(out, op, M4_MARKER | ((mOff >>> 11) & 8), mLen - M4_MAX_LEN);
+            }
+            out[op++] = (byte) (mOff << 2);
+            out[op++] = (byte) (mOff >>> 6);
+        }
+        return op;
+    }
+
+    private static int length(byte[] out, int op, int marker, int mLen) {
+        out[op++] = (byte) marker;
+        while (mLen > 255) {
+            mLen -= 255;
+            out[op++] = 0;
+        }
+        out[op++] = (byte) mLen;
+        return op;
+    }
+
+    /**
+     * 结束标记
+     */
+    private static int end(byte[] out, int op) {
+        out[op++] = M4_MARKER | 1;
+        out[op++] = 0;
+        out[op++] = 0;
+        return op;
+    }
+
+    private static int le32(byte[] b, int p) {
+        return (b[p] & 0xff) | (b[p + 1] & 0xff) << 8 | (b[p + 2] & 0xff) << 16 | (b[p + 3] & 0xff) << 24;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.lingmoyun.transport;
+
+/**
+ * CPCL指令边界扫描，数据可分多次输入
+ * <p>
+ * 文本指令以换行结束；CG、GG指令按头部的尺寸、长度跳过二进制数据（其中可能含换行），之后的换行为指令结束。
+ * EG数据为十六进制文本，按文本指令处理。非线程安全。
+ *
+ * @author guoweifeng
+ */
+final class CommandScanner {
+
+    private static final int LINE_START = 0;
+    private static final int NAME = 1;
+    private static final int NAME_END = 2;
+    private static final int FIELDS = 3;
+    private static final int BINARY = 4;
+    private static final int TEXT = 5;
+
+    private int state = LINE_START;
+    /**
+     * 'C'或'G'
+     */
+    private byte command;
+    /**
+     * CG: bw h x y，GG: bw h x y len
+     */
+    private final long[] fields = new long[5];
+    private int field;
+    private long value;
+    private boolean digits;
+    private boolean negative;
+    private long remaining;
+
+    /**
+     * 扫描b[from, to)
+     *
+     * @return 其中最后一条指令的结束位置（换行之后），没有指令结束时返回-1
+     */
+    int scan(byte[] b, int from, int to) {
+        int last = -1;
+        int p = from;
+        while (p < to) {
+            if (state == BINARY) {
+                int n = (int) Math.min(remaining, to - p);
+                p += n;
+                remaining -= n;
+                if (remaining == 0) state = TEXT;
+                continue;
+            }
+            byte c = b[p++];
+            if (c == '\n') {
+                last = p;
+                state = LINE_START;
+                continue;
+            }
+            switch (state) {
+                case LINE_START:
+                    command = c;
+                    state = c == 'C' || c == 'G' ? NAME : TEXT;
+                    break;
+                case NAME:
+                    state = c == 'G' ? NAME_END : TEXT;
+                    break;
+                case NAME_END:
+                    if (c == ' ') {
+                        state = FIELDS;
+                        field = 0;
+                        value = 0;
+                        digits = false;
+                        negative = false;
+                    } else {
+                        state = TEXT;
+                    }
+                    break;
+                case FIELDS:
+                    field(c);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * 解析头部的数字字段，字段齐全后进入二进制数据，格式不符时按文本指令处理
+     */
+    private void field(byte c) {
+        if (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            digits = true;
+            if (value > Integer.MAX_VALUE) state = TEXT;
+        } else if (c == '-' && !digits && !negative) {
+            negative = true;
+        } else if (c == ' ' && digits) {
+            fields[field++] = negative ? -value : value;
+            value = 0;
+            digits = false;
+            negative = false;
+            if (field == (command == 'G' ? 5 : 4)) {
+                remaining = command == 'G' ? fields[4] : fields[0] * fields[1];
+                state = remaining > 0 ? BINARY : TEXT;
+            }
+        } else {
+            state = TEXT;
+        }
+    }
+
+}
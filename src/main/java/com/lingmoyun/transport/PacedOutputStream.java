@@ -0,0 +1,305 @@
+package com.lingmoyun.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分块限速输出流，用于蓝牙SPP、串口、弱Wi-Fi等慢速链路和接收缓冲区小的打印机
+ * <p>
+ * 写入的数据按chunkSize分块发送，块尽量在指令边界处结束（如GG分段之间，见{@link CommandScanner}），
+ * 单条指令超过chunkSize时在指令中间拆分。每块发送前按以下方式等待，可同时使用：
+ * <ul>
+ * <li>速率：令牌桶，平均不超过bytesPerSecond，最多突发一块</li>
+ * <li>窗口：已发送未确认的字节数不超过window，打印机报告缓冲区释放后由调用方{@link #grant(long)}归还</li>
+ * </ul>
+ * 等待时write阻塞，生产方（如流式Builder）随链路速度放慢，缓冲数据不超过一块。
+ * write、flush、close只在生产线程中调用，grant和统计方法线程安全。
+ * <pre>
+ * PacedOutputStream out = PacedOutputStream.newStream(socket.getOutputStream()).chunkSize(2048).bytesPerSecond(20_000);
+ * CpclBuilder.to(out).area(0, 203, 1200, 1).imageGG(0, 0, image).formPrint().flush();
+ * log.info("{} B/s", out.throughput());
+ * </pre>
+ *
+ * @author guoweifeng
+ */
+public final class PacedOutputStream extends OutputStream {
+
+    /**
+     * 默认块大小，单位：字节
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    /**
+     * 创建分块限速输出流，默认不限速，需设置速率或窗口
+     *
+     * @param out 链路输出流
+     * @return PacedOutputStream
+     */
+    public static PacedOutputStream newStream(OutputStream out) {
+        if (out == null) throw new NullPointerException("out");
+        return new PacedOutputStream(out);
+    }
+
+    private final OutputStream out;
+    private final CommandScanner scanner = new CommandScanner();
+    private final Object lock = new Object();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile long bytesPerSecond;
+    private long window;
+    private long windowTimeoutMillis = TransportOptions.DEFAULT_WRITE_TIMEOUT_MILLIS;
+    /**
+     * 可用窗口，guarded by lock
+     */
+    private long credits;
+    private byte[] buffer;
+    private int count;
+    /**
+     * buffer中最后一条指令的结束位置
+     */
+    private int boundary;
+    private double tokens;
+    private long refilled;
+    private boolean closed;
+    private volatile long bytesWritten;
+    private volatile long chunksWritten;
+    private volatile long pausedNanos;
+    private volatile long started;
+    private volatile long finished;
+
+    private PacedOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * 块大小，开始写入前设置
+     *
+     * @param bytes 单位：字节，默认{@link #DEFAULT_CHUNK_SIZE}
+     * @return PacedOutputStream
+     */
+    public PacedOutputStream chunkSize(int bytes) {
+        if (bytes < 1) throw new IllegalArgumentException("chunkSize must be >= 1. " + bytes);
+        if (buffer != null) throw new IllegalStateException("chunkSize must be set before writing");
+        this.chunkSize = bytes;
+        return this;
+    }
+
+    /**
+     * 目标速率，可在写入过程中调整
+     *
+     * @param bytesPerSecond 单位：字节/秒，默认0（不限速）
+     * @return PacedOutputStream
+     */
+    public PacedOutputStream bytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 0) throw new IllegalArgumentException("bytesPerSecond must be >= 0. " + bytesPerSecond);
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * 发送窗口，开始写入前设置，块大小不超过窗口
+     *
+     * @param bytes 单位：字节，一般为打印机接收缓冲区大小，默认0（不限）
+     * @return PacedOutputStream
+     */
+    public PacedOutputStream window(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("window must be >= 0. " + bytes);
+        if (buffer != null) throw new IllegalStateException("window must be set before writing");
+        synchronized (lock) {
+            this.window = bytes;
+            this.credits = bytes;
+        }
+        return this;
+    }
+
+    /**
+     * 等待窗口的超时，打印机停止处理（缺纸、开盖）而不再归还窗口时，write以{@link SocketTimeoutException}失败
+     *
+     * @param millis 单位：毫秒，默认{@link TransportOptions#DEFAULT_WRITE_TIMEOUT_MILLIS}，0表示不限
+     * @return PacedOutputStream
+     */
+    public PacedOutputStream windowTimeout(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("windowTimeout must be >= 0. " + millis);
+        this.windowTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * 归还窗口，打印机处理完已接收的数据后调用，归还后可用窗口不超过window
+     *
+     * @param bytes 单位：字节
+     */
+    public void grant(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("bytes must be >= 0. " + bytes);
+        synchronized (lock) {
+            credits = Math.min(window, credits + bytes);
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("stream closed");
+        if (buffer == null) buffer = new byte[window > 0 ? (int) Math.min(chunkSize, window) : chunkSize];
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            int end = scanner.scan(buffer, count, count + n);
+            if (end > 0) boundary = end;
+            count += n;
+            off += n;
+            len -= n;
+            if (count == buffer.length) {
+                // 指令边界不足半块时按整块发送，避免大量小块
+                send(boundary >= buffer.length / 2 ? boundary : count);
+            }
+        }
+    }
+
+    /**
+     * 发送缓冲的数据（仍按速率、窗口等待），再flush链路输出流
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) throw new IOException("stream closed");
+        if (count > 0) send(count);
+        out.flush();
+    }
+
+    /**
+     * 发送缓冲的数据后关闭链路输出流
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            flush();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    /**
+     * 已发送的字节数
+     *
+     * @return 字节数
+     */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * 已发送的块数
+     *
+     * @return 块数
+     */
+    public long chunksWritten() {
+        return chunksWritten;
+    }
+
+    /**
+     * 按速率、窗口等待的总时间，即生产方被阻塞的时间
+     *
+     * @return 单位：毫秒
+     */
+    public long pausedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(pausedNanos);
+    }
+
+    /**
+     * 实际吞吐量，第一块开始发送到最后一块发送完成
+     *
+     * @return 单位：字节/秒，还没有发送时为0
+     */
+    public double throughput() {
+        long started = this.started;
+        long nanos = finished - started;
+        return started == 0 || nanos <= 0 ? 0 : bytesWritten * 1e9 / nanos;
+    }
+
+    /**
+     * 等待速率、窗口后发送buffer[0, n)，剩余数据移到buffer开头
+     */
+    private void send(int n) throws IOException {
+        long start = System.nanoTime();
+        if (started == 0) started = start;
+        acquire(n);
+        pace(n);
+        long sent = System.nanoTime();
+        out.write(buffer, 0, n);
+        count -= n;
+        System.arraycopy(buffer, n, buffer, 0, count);
+        boundary = 0;
+        pausedNanos += sent - start;
+        bytesWritten += n;
+        chunksWritten++;
+        finished = System.nanoTime();
+    }
+
+    private void acquire(int n) throws IOException {
+        synchronized (lock) {
+            if (window == 0) return;
+            long timeout = windowTimeoutMillis;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            try {
+                while (credits < n) {
+                    if (timeout == 0) {
+                        lock.wait();
+                        continue;
+                    }
+                    long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (millis <= 0) throw new SocketTimeoutException("window timed out, credits=" + credits + ", chunk=" + n);
+                    lock.wait(millis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            credits -= n;
+        }
+    }
+
+    /**
+     * 令牌桶，容量为一块
+     */
+    private void pace(int n) throws IOException {
+        long rate = bytesPerSecond;
+        if (rate == 0) return;
+        long now = System.nanoTime();
+        if (refilled == 0) {
+            tokens = buffer.length;
+        } else {
+            tokens = Math.min(buffer.length, tokens + (now - refilled) * rate / 1e9);
+        }
+        refilled = now;
+        if (tokens < n) {
+            long nanos = (long) ((n - tokens) * 1e9 / rate);
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            long woke = System.nanoTime();
+            tokens += (woke - refilled) * rate / 1e9;
+            refilled = woke;
+        }
+        tokens -= n;
+    }
+
+    @Override
+    public String toString() {
+        return "PacedOutputStream{chunkSize=" + chunkSize + ", bytesPerSecond=" + bytesPerSecond + ", window=" + window
+                + ", bytesWritten=" + bytesWritten + ", chunksWritten=" + chunksWritten + ", pausedMillis=" + pausedMillis()
+                + ", throughput=" + Math.round(throughput()) + "}";
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.lingmoyun.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 按前缀解析任务结果，直接在读缓冲区上匹配，只有任务结果行才创建字符串
+ * 任务ID按GBK解码，与{@code CpclBuilder.taskId(String)}的编码一致
+ *
+ * @author guoweifeng
+ */
+final class PrefixTaskResultParser implements TaskResultParser {
+
+    private static final Charset GBK = Charset.forName("GBK");
+
+    private final byte[] prefix;
+
+    PrefixTaskResultParser(String prefix) {
+        if (prefix == null || prefix.isEmpty()) throw new IllegalArgumentException("prefix must not be empty");
+        this.prefix = prefix.getBytes(GBK);
+    }
+
+    @Override
+    public TaskResult parse(ByteBuffer line) {
+        int p = line.position();
+        int end = line.limit();
+        if (end - p <= prefix.length) return null;
+        for (byte b : prefix) {
+            if (line.get(p++) != b) return null;
+        }
+        if (!separator(line.get(p))) return null;
+        while (p < end && separator(line.get(p))) p++;
+        int idStart = p;
+        while (p < end && !separator(line.get(p))) p++;
+        if (p == idStart) return null;
+        String taskId = decode(line, idStart, p);
+        while (p < end && separator(line.get(p))) p++;
+        return TaskResult.of(taskId, decode(line, p, end));
+    }
+
+    private static boolean separator(byte b) {
+        return b == ' ' || b == ':' || b == ',' || b == '=' || b == '\t';
+    }
+
+    private static String decode(ByteBuffer line, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = line.get(from + i);
+        return new String(bytes, GBK);
+    }
+
+}
@@ -0,0 +1,469 @@
+package com.lingmoyun.transport;
+
+import com.lingmoyun.instruction.CpclBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 打印机连接，RAW TCP（通常为9100端口）
+ * <p>
+ * 基于{@link AsynchronousSocketChannel}，不占用线程等待，大量打印机共用少量回调线程。
+ * 多个任务可连续提交，按提交顺序排队，一次写操作合并发送多个排队的任务，
+ * 每个任务全部写入后完成其Future。写失败或超时后连接关闭，排队中的任务全部失败。
+ * 打印机回传的打印结果见{@link TaskResultListener}。
+ * 线程安全。
+ * <pre>
+ * PrinterConnection connection = PrinterConnection.connect("192.168.1.100", 9100).join();
+ * connection.send(CpclBuilder.createArea(0, 203, 1200, 1).text(8, 0, 100, 100, "hello").formPrint())
+ *         .thenRun(() -&gt; log.info("sent"));
+ * </pre>
+ *
+ * @author guoweifeng
+ */
+public final class PrinterConnection implements Closeable {
+
+    /**
+     * RAW TCP默认端口
+     */
+    public static final int DEFAULT_PORT = 9100;
+
+    /**
+     * 输出流默认的排队上限，单位：字节
+     */
+    public static final int DEFAULT_STREAM_HIGH_WATER = 256 << 10;
+
+    /**
+     * 一次写操作最多合并的任务数
+     */
+    private static final int MAX_GATHER = 16;
+
+    /**
+     * 连接打印机，使用默认选项
+     *
+     * @param host 主机
+     * @param port 端口
+     * @return 连接成功时完成
+     */
+    public static CompletableFuture<PrinterConnection> connect(String host, int port) {
+        return connect(new InetSocketAddress(host, port), null);
+    }
+
+    /**
+     * 连接打印机
+     * 连接超时时以{@link SocketTimeoutException}失败
+     *
+     * @param address 地址
+     * @param options 连接选项，null使用默认选项
+     * @return 连接成功时完成
+     */
+    public static CompletableFuture<PrinterConnection> connect(InetSocketAddress address, TransportOptions options) {
+        TransportOptions opts = options == null ? TransportOptions.DEFAULT : options;
+        CompletableFuture<PrinterConnection> future = new CompletableFuture<>();
+        AsynchronousSocketChannel channel;
+        try {
+            channel = opts.group == null ? AsynchronousSocketChannel.open() : AsynchronousSocketChannel.open(opts.group);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, opts.tcpNoDelay);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, opts.keepAlive);
+            if (opts.sendBufferSize > 0) channel.setOption(StandardSocketOptions.SO_SNDBUF, opts.sendBufferSize);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        ScheduledFuture<?> timeout = opts.connectTimeoutMillis <= 0 ? null : Timeouts.schedule(() -> {
+            if (future.completeExceptionally(new SocketTimeoutException("connect timed out: " + address))) closeQuietly(channel);
+        }, opts.connectTimeoutMillis);
+        channel.connect(address, null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void result, Void attachment) {
+                if (timeout != null) timeout.cancel(false);
+                if (!future.complete(new PrinterConnection(channel, address, opts))) closeQuietly(channel);
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                if (timeout != null) timeout.cancel(false);
+                future.completeExceptionally(e);
+                closeQuietly(channel);
+            }
+        });
+        return future;
+    }
+
+    private final AsynchronousSocketChannel channel;
+    private final InetSocketAddress address;
+    private final TransportOptions options;
+    private final Object lock = new Object();
+    /**
+     * 排队中的任务，队首为正在写的任务，guarded by lock
+     */
+    private final ArrayDeque<Job> queue = new ArrayDeque<>();
+    /**
+     * 只有一个写操作在进行，合并写的缓冲区数组复用
+     */
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final WriteHandler writeHandler = new WriteHandler();
+    private boolean writing;
+    private boolean reading;
+    private Throwable failure;
+    private long queuedBytes;
+    private long bytesWritten;
+    private long jobsWritten;
+
+    private PrinterConnection(AsynchronousSocketChannel channel, InetSocketAddress address, TransportOptions options) {
+        this.channel = channel;
+        this.address = address;
+        this.options = options;
+    }
+
+    /**
+     * 发送任务
+     *
+     * @param cpcl 指令，提交后调用方不得修改
+     * @return 全部写入后完成，连接失败或已关闭时异常完成
+     */
+    public CompletableFuture<Void> send(byte[] cpcl) {
+        return send(ByteBuffer.wrap(cpcl));
+    }
+
+    /**
+     * 发送任务
+     *
+     * @param cpcl 指令，提交后调用方不得修改
+     * @param off  起始位置
+     * @param len  长度
+     * @return 全部写入后完成，连接失败或已关闭时异常完成
+     */
+    public CompletableFuture<Void> send(byte[] cpcl, int off, int len) {
+        return send(ByteBuffer.wrap(cpcl, off, len));
+    }
+
+    /**
+     * 发送Builder中的指令
+     *
+     * @param builder 非流式Builder
+     * @return 全部写入后完成，连接失败或已关闭时异常完成
+     */
+    public CompletableFuture<Void> send(CpclBuilder builder) {
+        return send(builder.build());
+    }
+
+    /**
+     * 发送任务，发送position到limit之间的数据
+     *
+     * @param cpcl 指令，完成前调用方不得修改
+     * @return 全部写入后完成，连接失败或已关闭时异常完成
+     */
+    public CompletableFuture<Void> send(ByteBuffer cpcl) {
+        Job job = new Job(cpcl);
+        boolean start;
+        synchronized (lock) {
+            if (failure != null) {
+                job.future.completeExceptionally(failure);
+                return job.future;
+            }
+            queue.addLast(job);
+            queuedBytes += cpcl.remaining();
+            start = !writing;
+            writing = true;
+        }
+        if (start) writeQueued();
+        return job.future;
+    }
+
+    /**
+     * 输出流，排队上限为{@link #DEFAULT_STREAM_HIGH_WATER}
+     *
+     * @return OutputStream
+     * @see #outputStream(int)
+     */
+    public OutputStream outputStream() {
+        return outputStream(DEFAULT_STREAM_HIGH_WATER);
+    }
+
+    /**
+     * 输出流，每次write复制数据并作为一个任务排队，flush等待已写入的数据全部发出
+     * 该流排队未发出的数据超过highWater时write阻塞，直到最早的任务发出，大图片流式发送给慢速打印机时内存占用有上限。
+     * 可作为流式Builder的输出：{@code CpclBuilder.to(connection.outputStream())}。
+     * 关闭输出流不关闭连接。非线程安全。
+     *
+     * @param highWater 排队上限，单位：字节
+     * @return OutputStream
+     */
+    public OutputStream outputStream(int highWater) {
+        if (highWater < 1) throw new IllegalArgumentException("highWater must be >= 1. " + highWater);
+        return new ConnectionOutputStream(highWater);
+    }
+
+    /**
+     * 排队中（含正在写）的字节数
+     *
+     * @return 字节数
+     */
+    public long queuedBytes() {
+        synchronized (lock) {
+            return queuedBytes;
+        }
+    }
+
+    /**
+     * 排队中（含正在写）的任务数
+     *
+     * @return 任务数
+     */
+    public int queuedJobs() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * 已写入的字节数
+     *
+     * @return 字节数
+     */
+    public long bytesWritten() {
+        synchronized (lock) {
+            return bytesWritten;
+        }
+    }
+
+    /**
+     * 已写入的任务数
+     *
+     * @return 任务数
+     */
+    public long jobsWritten() {
+        synchronized (lock) {
+            return jobsWritten;
+        }
+    }
+
+    /**
+     * 连接是否可用，写失败、超时或关闭后为false
+     *
+     * @return 是否可用
+     */
+    public boolean isOpen() {
+        synchronized (lock) {
+            return failure == null;
+        }
+    }
+
+    /**
+     * 打印机地址
+     *
+     * @return 地址
+     */
+    public InetSocketAddress address() {
+        return address;
+    }
+
+    /**
+     * 关闭连接，排队中的任务以{@link ClosedChannelException}失败
+     */
+    @Override
+    public void close() {
+        fail(new ClosedChannelException());
+    }
+
+    /**
+     * 占用回读通道，一个连接只能有一个读取方
+     *
+     * @return 已被占用时返回false
+     */
+    boolean claimReader() {
+        synchronized (lock) {
+            if (reading) return false;
+            reading = true;
+            return true;
+        }
+    }
+
+    AsynchronousSocketChannel channel() {
+        return channel;
+    }
+
+    /**
+     * 写出队首的若干任务，只在writing为true的线程中调用
+     */
+    private void writeQueued() {
+        int n = 0;
+        synchronized (lock) {
+            if (queue.isEmpty() || failure != null) {
+                writing = false;
+                return;
+            }
+            for (Iterator<Job> it = queue.iterator(); it.hasNext() && n < MAX_GATHER; ) {
+                gather[n++] = it.next().buffer;
+            }
+        }
+        long timeout = options.writeTimeoutMillis;
+        try {
+            channel.write(gather, 0, n, timeout, TimeUnit.MILLISECONDS, null, writeHandler);
+        } catch (RuntimeException e) {
+            // 通道已关闭等
+            fail(e);
+        }
+    }
+
+    private final class WriteHandler implements CompletionHandler<Long, Void> {
+        @Override
+        public void completed(Long written, Void attachment) {
+            List<Job> done = null;
+            Arrays.fill(gather, null);
+            synchronized (lock) {
+                queuedBytes -= written;
+                bytesWritten += written;
+                while (!queue.isEmpty() && !queue.peekFirst().buffer.hasRemaining()) {
+                    if (done == null) done = new ArrayList<>();
+                    done.add(queue.pollFirst());
+                    jobsWritten++;
+                }
+            }
+            if (done != null) {
+                for (Job job : done) job.future.complete(null);
+            }
+            writeQueued();
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+            if (e instanceof InterruptedByTimeoutException) {
+                e = new SocketTimeoutException("write timed out: " + address);
+            }
+            fail(e);
+        }
+    }
+
+    /**
+     * 连接失败，关闭通道，排队中的任务全部以e失败
+     */
+    private void fail(Throwable e) {
+        List<Job> pending;
+        synchronized (lock) {
+            if (failure != null) return;
+            failure = e;
+            pending = new ArrayList<>(queue);
+            queue.clear();
+            queuedBytes = 0;
+        }
+        closeQuietly(channel);
+        for (Job job : pending) job.future.completeExceptionally(e);
+    }
+
+    private static void closeQuietly(AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "PrinterConnection{address=" + address + ", open=" + (failure == null) + ", queuedJobs=" + queue.size()
+                    + ", queuedBytes=" + queuedBytes + ", bytesWritten=" + bytesWritten + ", jobsWritten=" + jobsWritten + "}";
+        }
+    }
+
+    private static final class Job {
+        final ByteBuffer buffer;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Job(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final class ConnectionOutputStream extends OutputStream {
+        private final int highWater;
+        /**
+         * 该流排队中的任务，按提交顺序，连接按顺序写出
+         */
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        private long pendingBytes;
+
+        ConnectionOutputStream(int highWater) {
+            this.highWater = highWater;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            CompletableFuture<Void> future = send(Arrays.copyOfRange(b, off, off + len));
+            pending.addLast(new Pending(future, len));
+            pendingBytes += len;
+            // 超过上限时等待最早的任务发出
+            while (pendingBytes > highWater || pending.peekFirst().future.isDone()) {
+                Pending oldest = pending.pollFirst();
+                pendingBytes -= oldest.length;
+                await(oldest.future);
+                if (pending.isEmpty()) break;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            Pending last = pending.peekLast();
+            if (last == null) return;
+            await(last.future);
+            pending.clear();
+            pendingBytes = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        private void await(CompletableFuture<Void> future) throws IOException {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException | CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private static final class Pending {
+        final CompletableFuture<Void> future;
+        final int length;
+
+        Pending(CompletableFuture<Void> future, int length) {
+            this.future = future;
+            this.length = length;
+        }
+    }
+
+}
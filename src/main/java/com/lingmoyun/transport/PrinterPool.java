@@ -0,0 +1,331 @@
+package com.lingmoyun.transport;
+
+import com.lingmoyun.instruction.CpclBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 打印机组连接池和任务分发
+ * <p>
+ * 一组等价的打印机（如同一包装线上的多台），每台保持一个长连接，断开后下次分发时重新连接。
+ * 每个任务分发给预计最早空闲的可用打印机：排队字节数 / 该打印机最近的吞吐量（指数移动平均），
+ * 排队字节数不含已写入系统发送缓冲区的数据。
+ * 连接失败或写失败的打印机暂停分发一段时间，任务改发给其他打印机，每台最多尝试一次。
+ * 线程安全。
+ * <p>
+ * 注意：任务完成表示数据已写入连接，不代表打印机已接收；写失败时打印机可能已经收到并打印了部分或全部数据，
+ * 改发后可能重复打印。
+ * <p>
+ * 任务只能以完整的byte[]提交，不支持流：失败改发时要从头重发整个任务，分发时要按任务长度估算排队时间。
+ * 流式生成的指令先写入{@link java.io.ByteArrayOutputStream}或非流式{@link CpclBuilder}再提交；
+ * 不需要分发和改发时，可直接用{@link PrinterConnection#outputStream()}向单台打印机流式发送。
+ * <pre>
+ * PrinterPool pool = PrinterPool.newPool(line1Printers).options(TransportOptions.newOptions().writeTimeout(10_000));
+ * pool.submit(cpcl).thenAccept(printer -&gt; log.info("printed on {}", printer));
+ * </pre>
+ *
+ * @author guoweifeng
+ */
+public final class PrinterPool implements Closeable {
+
+    /**
+     * 默认初始吞吐量估计，单位：字节/秒，约为10Mbps以太网打印机的处理能力
+     */
+    public static final long DEFAULT_BYTES_PER_SECOND = 1_000_000;
+
+    /**
+     * 默认暂停分发时间，单位：毫秒
+     */
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 5_000;
+
+    /**
+     * 吞吐量指数移动平均的权重
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * 吞吐量采样周期，一次合并写可能同时完成多个任务，按周期内完成的字节数计算
+     */
+    private static final long SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 创建连接池
+     *
+     * @param printers 打印机地址
+     * @return PrinterPool
+     */
+    public static PrinterPool newPool(List<InetSocketAddress> printers) {
+        if (printers == null || printers.isEmpty()) throw new IllegalArgumentException("printers must not be empty");
+        return new PrinterPool(printers);
+    }
+
+    /**
+     * 创建连接池
+     *
+     * @param printers 打印机地址
+     * @return PrinterPool
+     */
+    public static PrinterPool newPool(InetSocketAddress... printers) {
+        return newPool(Arrays.asList(printers));
+    }
+
+    private final Printer[] printers;
+    private TransportOptions options = TransportOptions.DEFAULT;
+    private long retryDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RETRY_DELAY_MILLIS);
+    private boolean closed;
+
+    private PrinterPool(List<InetSocketAddress> addresses) {
+        this.printers = new Printer[addresses.size()];
+        for (int i = 0; i < printers.length; i++) {
+            printers[i] = new Printer(addresses.get(i), i);
+        }
+    }
+
+    /**
+     * 连接选项，对之后建立的连接有效
+     *
+     * @param options 连接选项，null使用默认选项
+     * @return PrinterPool
+     */
+    public PrinterPool options(TransportOptions options) {
+        synchronized (this) {
+            this.options = options == null ? TransportOptions.DEFAULT : options;
+        }
+        return this;
+    }
+
+    /**
+     * 初始吞吐量估计，打印机还没有完成任务时按该值估算排队时间
+     *
+     * @param bytesPerSecond 单位：字节/秒，默认{@link #DEFAULT_BYTES_PER_SECOND}
+     * @return PrinterPool
+     */
+    public PrinterPool bytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 1) throw new IllegalArgumentException("bytesPerSecond must be >= 1. " + bytesPerSecond);
+        synchronized (this) {
+            for (Printer printer : printers) {
+                if (printer.samples == 0) printer.bytesPerSecond = bytesPerSecond;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 连接失败或写失败后暂停分发的时间，之后的任务重新连接
+     *
+     * @param millis 单位：毫秒，默认{@link #DEFAULT_RETRY_DELAY_MILLIS}
+     * @return PrinterPool
+     */
+    public PrinterPool retryDelay(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("retryDelay must be >= 0. " + millis);
+        synchronized (this) {
+            this.retryDelayNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+        return this;
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param cpcl 指令，提交后调用方不得修改，改发时重发同一数组
+     * @return 发送完成时以打印机地址完成；所有打印机都失败时以最后一次的异常失败
+     */
+    public CompletableFuture<InetSocketAddress> submit(byte[] cpcl) {
+        CompletableFuture<InetSocketAddress> result = new CompletableFuture<>();
+        dispatch(cpcl, new boolean[printers.length], null, result);
+        return result;
+    }
+
+    /**
+     * 提交Builder中的指令
+     *
+     * @param builder 非流式Builder，流式Builder的数据已写出、无法改发，传入时抛出IllegalStateException
+     * @return 发送完成时以打印机地址完成；所有打印机都失败时以最后一次的异常失败
+     */
+    public CompletableFuture<InetSocketAddress> submit(CpclBuilder builder) {
+        return submit(builder.build());
+    }
+
+    /**
+     * 关闭所有连接，排队中的任务失败，之后提交的任务直接失败
+     */
+    @Override
+    public void close() {
+        List<CompletableFuture<PrinterConnection>> connections = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Printer printer : printers) {
+                if (printer.connection != null) connections.add(printer.connection);
+                printer.connection = null;
+            }
+        }
+        for (CompletableFuture<PrinterConnection> connection : connections) {
+            connection.thenAccept(PrinterConnection::close);
+        }
+    }
+
+    /**
+     * 选择打印机并发送，失败时排除该打印机后重新分发
+     */
+    private void dispatch(byte[] cpcl, boolean[] tried, Throwable last, CompletableFuture<InetSocketAddress> result) {
+        Printer printer;
+        CompletableFuture<PrinterConnection> connection;
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (closed) {
+                result.completeExceptionally(new IOException("printer pool closed"));
+                return;
+            }
+            printer = select(tried, now);
+            if (printer == null) {
+                result.completeExceptionally(last != null ? last : new IOException("no printer available"));
+                return;
+            }
+            tried[printer.index] = true;
+            printer.queuedBytes += cpcl.length;
+            connection = printer.connection(options);
+        }
+        Printer target = printer;
+        connection.thenCompose(c -> c.send(cpcl)).whenComplete((v, e) -> {
+            if (e == null) {
+                target.completed(cpcl.length, now);
+                result.complete(target.address);
+            } else {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                target.failed(cpcl.length, connection);
+                dispatch(cpcl, tried, cause, result);
+            }
+        });
+    }
+
+    /**
+     * 未尝试过的打印机中，可用且预计最早空闲的；都不可用时取暂停最早结束的，重新连接
+     */
+    private Printer select(boolean[] tried, long now) {
+        Printer best = null;
+        double bestMillis = Double.MAX_VALUE;
+        Printer fallback = null;
+        for (Printer printer : printers) {
+            if (tried[printer.index]) continue;
+            if (now - printer.unavailableUntil < 0) {
+                if (fallback == null || printer.unavailableUntil - fallback.unavailableUntil < 0) fallback = printer;
+                continue;
+            }
+            double millis = printer.drainMillis();
+            if (millis < bestMillis) {
+                best = printer;
+                bestMillis = millis;
+            }
+        }
+        return best != null ? best : fallback;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("PrinterPool{");
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (int i = 0; i < printers.length; i++) {
+                Printer p = printers[i];
+                if (i > 0) sb.append(", ");
+                sb.append(p.address).append("{available=").append(now - p.unavailableUntil >= 0)
+                        .append(", queuedBytes=").append(p.queuedBytes)
+                        .append(", bytesPerSecond=").append(Math.round(p.bytesPerSecond))
+                        .append(", jobs=").append(p.jobs)
+                        .append(", failures=").append(p.failures).append('}');
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 一台打印机的连接和负载，guarded by PrinterPool.this
+     */
+    private final class Printer {
+        final InetSocketAddress address;
+        final int index;
+        CompletableFuture<PrinterConnection> connection;
+        long queuedBytes;
+        double bytesPerSecond = DEFAULT_BYTES_PER_SECOND;
+        /**
+         * 上一个任务完成的时间，计算吞吐量时排除空闲时间
+         */
+        long lastCompleted;
+        long windowStart;
+        long windowBytes;
+        long unavailableUntil;
+        long jobs;
+        long samples;
+        long failures;
+
+        Printer(InetSocketAddress address, int index) {
+            this.address = address;
+            this.index = index;
+            this.unavailableUntil = System.nanoTime();
+        }
+
+        double drainMillis() {
+            return queuedBytes * 1000.0 / bytesPerSecond;
+        }
+
+        /**
+         * 当前连接，没有或已断开时重新连接
+         */
+        CompletableFuture<PrinterConnection> connection(TransportOptions options) {
+            if (connection == null || connection.isCompletedExceptionally()
+                    || connection.isDone() && !connection.join().isOpen()) {
+                connection = PrinterConnection.connect(address, options);
+            }
+            return connection;
+        }
+
+        /**
+         * 任务完成，连接持续有任务排队时，按采样周期内完成的字节数更新吞吐量
+         * 不排队的任务直接写入系统缓冲区，其耗时不反映打印机的接收速度
+         */
+        void completed(int bytes, long submitted) {
+            synchronized (PrinterPool.this) {
+                long now = System.nanoTime();
+                if (jobs > 0 && lastCompleted - submitted > 0) {
+                    windowBytes += bytes;
+                    long nanos = now - windowStart;
+                    if (nanos >= SAMPLE_NANOS) {
+                        double sample = windowBytes * 1e9 / nanos;
+                        bytesPerSecond = samples == 0 ? sample : ALPHA * sample + (1 - ALPHA) * bytesPerSecond;
+                        samples++;
+                        windowStart = now;
+                        windowBytes = 0;
+                    }
+                } else {
+                    windowStart = now;
+                    windowBytes = 0;
+                }
+                lastCompleted = now;
+                queuedBytes -= bytes;
+                jobs++;
+            }
+        }
+
+        /**
+         * 任务失败，暂停分发，丢弃失败的连接
+         */
+        void failed(int bytes, CompletableFuture<PrinterConnection> failed) {
+            synchronized (PrinterPool.this) {
+                queuedBytes -= bytes;
+                failures++;
+                unavailableUntil = System.nanoTime() + retryDelayNanos;
+                if (connection == failed) connection = null;
+            }
+            failed.thenAccept(PrinterConnection::close);
+        }
+    }
+
+}
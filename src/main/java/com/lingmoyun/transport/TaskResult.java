@@ -0,0 +1,53 @@
+package com.lingmoyun.transport;
+
+/**
+ * 打印机回传的任务结果
+ *
+ * @author guoweifeng
+ */
+public final class TaskResult {
+
+    /**
+     * 创建任务结果，供自定义{@link TaskResultParser}使用
+     *
+     * @param taskId  任务ID，即{@code CpclBuilder.taskId(String)}传入的值
+     * @param message 结果内容，格式由机型决定
+     * @return TaskResult
+     */
+    public static TaskResult of(String taskId, String message) {
+        if (taskId == null) throw new NullPointerException("taskId");
+        return new TaskResult(taskId, message == null ? "" : message);
+    }
+
+    private final String taskId;
+    private final String message;
+
+    private TaskResult(String taskId, String message) {
+        this.taskId = taskId;
+        this.message = message;
+    }
+
+    /**
+     * 任务ID
+     *
+     * @return 任务ID
+     */
+    public String taskId() {
+        return taskId;
+    }
+
+    /**
+     * 结果内容，如打印成功、缺纸、开盖等状态，格式由机型决定
+     *
+     * @return 结果内容，没有时为空字符串
+     */
+    public String message() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskResult{taskId=" + taskId + ", message=" + message + "}";
+    }
+
+}
@@ -0,0 +1,264 @@
+package com.lingmoyun.transport;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 任务结果监听，异步读取打印机回传的打印结果，按任务ID完成对应的Future
+ * <p>
+ * 发送带{@code CpclBuilder.taskId(String)}的任务前调用{@link #expect(String)}登记，
+ * 回传数据在连接的回调线程中逐行解析（见{@link TaskResultParser}），不占用线程等待，同一连接可同时等待大量任务。
+ * 没有登记或已超时的任务ID交给{@link #onUnknown(Consumer)}。连接断开时等待中的任务全部失败。
+ * 一个连接只能创建一个监听。线程安全。
+ * <pre>
+ * TaskResultListener results = TaskResultListener.listen(connection);
+ * CompletableFuture&lt;TaskResult&gt; result = results.expect("1001");
+ * connection.send(CpclBuilder.createArea(0, 203, 1200, 1).taskId("1001").text(8, 0, 10, 10, "hello").formPrint());
+ * result.thenAccept(r -&gt; log.info("{} {}", r.taskId(), r.message()));
+ * </pre>
+ *
+ * @author guoweifeng
+ */
+public final class TaskResultListener implements Closeable {
+
+    /**
+     * 默认等待结果的超时，单位：毫秒
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60_000;
+
+    /**
+     * 读缓冲区大小，超过该长度的行丢弃
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * 监听连接的回传数据，使用默认解析
+     *
+     * @param connection 连接
+     * @return TaskResultListener
+     */
+    public static TaskResultListener listen(PrinterConnection connection) {
+        return listen(connection, TaskResultParser.DEFAULT);
+    }
+
+    /**
+     * 监听连接的回传数据
+     *
+     * @param connection 连接
+     * @param parser     解析
+     * @return TaskResultListener
+     */
+    public static TaskResultListener listen(PrinterConnection connection, TaskResultParser parser) {
+        if (parser == null) throw new NullPointerException("parser");
+        if (!connection.claimReader()) throw new IllegalStateException("connection already has a listener: " + connection.address());
+        TaskResultListener listener = new TaskResultListener(connection, parser);
+        listener.read();
+        return listener;
+    }
+
+    private final PrinterConnection connection;
+    private final TaskResultParser parser;
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+    /**
+     * 读缓冲区及其只读视图，只在读回调中使用
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer line = buffer.asReadOnlyBuffer();
+    private final ReadHandler readHandler = new ReadHandler();
+    private final AtomicLong unknown = new AtomicLong();
+    /**
+     * 正在丢弃超长的行
+     */
+    private boolean discarding;
+    private volatile Consumer<TaskResult> unknownHandler;
+    private volatile Throwable failure;
+
+    private TaskResultListener(PrinterConnection connection, TaskResultParser parser) {
+        this.connection = connection;
+        this.parser = parser;
+    }
+
+    /**
+     * 登记任务，默认超时
+     *
+     * @param taskId 任务ID
+     * @return 收到结果时完成；超时以{@link TimeoutException}失败，连接断开或监听关闭时以对应异常失败
+     */
+    public CompletableFuture<TaskResult> expect(String taskId) {
+        return expect(taskId, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 登记任务，在发送任务之前调用
+     * 调用方取消返回的Future即取消登记
+     *
+     * @param taskId 任务ID，同一时间不能重复
+     * @param millis 超时，单位：毫秒，0表示不限
+     * @return 收到结果时完成；超时以{@link TimeoutException}失败，连接断开或监听关闭时以对应异常失败
+     */
+    public CompletableFuture<TaskResult> expect(String taskId, long millis) {
+        if (taskId == null) throw new NullPointerException("taskId");
+        if (millis < 0) throw new IllegalArgumentException("timeout must be >= 0. " + millis);
+        Pending p = new Pending();
+        if (pending.putIfAbsent(taskId, p) != null) throw new IllegalStateException("taskId already pending: " + taskId);
+        p.future.whenComplete((r, e) -> {
+            pending.remove(taskId, p);
+            ScheduledFuture<?> timeout = p.timeout;
+            if (timeout != null) timeout.cancel(false);
+        });
+        Throwable failure = this.failure;
+        if (failure != null) {
+            p.future.completeExceptionally(failure);
+            return p.future;
+        }
+        if (millis > 0) {
+            p.timeout = Timeouts.schedule(() ->
+                    p.future.completeExceptionally(new TimeoutException("task result timed out: " + taskId)), millis);
+            if (p.future.isDone()) p.timeout.cancel(false);
+        }
+        return p.future;
+    }
+
+    /**
+     * 没有登记（或已超时、已取消）的任务结果的处理，在连接的回调线程中调用，应很快返回
+     *
+     * @param handler 处理，默认null（丢弃）
+     * @return TaskResultListener
+     */
+    public TaskResultListener onUnknown(Consumer<TaskResult> handler) {
+        this.unknownHandler = handler;
+        return this;
+    }
+
+    /**
+     * 等待结果的任务数
+     *
+     * @return 任务数
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * 收到的未登记任务结果数
+     *
+     * @return 结果数
+     */
+    public long unknownCount() {
+        return unknown.get();
+    }
+
+    /**
+     * 停止分发结果，等待中的任务以{@link ClosedChannelException}失败，不关闭连接
+     * 已发出的读操作在连接关闭或收到数据时结束，之后该连接不能再创建监听
+     */
+    @Override
+    public void close() {
+        fail(new ClosedChannelException());
+    }
+
+    private void read() {
+        try {
+            connection.channel().read(buffer, null, readHandler);
+        } catch (RuntimeException e) {
+            // 通道已关闭等
+            fail(e);
+        }
+    }
+
+    private final class ReadHandler implements CompletionHandler<Integer, Void> {
+        @Override
+        public void completed(Integer n, Void attachment) {
+            if (failure != null) return;
+            if (n < 0) {
+                fail(new EOFException("connection closed by printer: " + connection.address()));
+                return;
+            }
+            lines();
+            read();
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+            fail(e);
+        }
+    }
+
+    /**
+     * 在读缓冲区上切分并解析完整的行，剩余的半行移到缓冲区开头
+     */
+    private void lines() {
+        int end = buffer.position();
+        int start = 0;
+        for (int p = 0; p < end; p++) {
+            byte b = buffer.get(p);
+            if (b != '\n' && b != '\r' && b != 0) continue;
+            if (discarding) {
+                discarding = false;
+            } else if (p > start) {
+                line.limit(p).position(start);
+                try {
+                    dispatch(parser.parse(line));
+                } catch (RuntimeException ignored) {
+                    // 解析或处理异常只影响这一行，继续读取
+                }
+            }
+            start = p + 1;
+        }
+        if (start == 0 && end == buffer.capacity()) {
+            // 超长的行，丢弃到下一个行尾
+            discarding = true;
+            start = end;
+        }
+        buffer.limit(end).position(start);
+        buffer.compact();
+    }
+
+    private void dispatch(TaskResult result) {
+        if (result == null) return;
+        Pending p = pending.remove(result.taskId());
+        if (p != null) {
+            p.future.complete(result);
+            return;
+        }
+        unknown.incrementAndGet();
+        Consumer<TaskResult> handler = unknownHandler;
+        if (handler != null) handler.accept(result);
+    }
+
+    /**
+     * 停止分发，等待中的任务全部以e失败
+     */
+    private void fail(Throwable e) {
+        if (failure != null) return;
+        failure = e;
+        for (Iterator<Map.Entry<String, Pending>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Pending p = it.next().getValue();
+            it.remove();
+            p.future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TaskResultListener{address=" + connection.address() + ", open=" + (failure == null)
+                + ", pending=" + pending.size() + ", unknown=" + unknown.get() + "}";
+    }
+
+    private static final class Pending {
+        final CompletableFuture<TaskResult> future = new CompletableFuture<>();
+        volatile ScheduledFuture<?> timeout;
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.lingmoyun.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 任务结果解析，回传数据按行（换行、回车或0结尾）切分后逐行解析
+ * <p>
+ * 各机型的回传格式不同，默认解析{@code TASKID <taskId> <message>}格式，
+ * 其他格式实现该接口后传给{@link TaskResultListener#listen(PrinterConnection, TaskResultParser)}。
+ *
+ * @author guoweifeng
+ */
+public interface TaskResultParser {
+
+    /**
+     * 默认解析，{@code TASKID}开头的行
+     */
+    TaskResultParser DEFAULT = prefixed("TASKID");
+
+    /**
+     * 按前缀解析，行格式为prefix、任务ID、结果内容，以空格、冒号、逗号或等号分隔，如{@code TASKID 123 OK}、{@code TASKID:123,OK}
+     *
+     * @param prefix 前缀
+     * @return TaskResultParser
+     */
+    static TaskResultParser prefixed(String prefix) {
+        return new PrefixTaskResultParser(prefix);
+    }
+
+    /**
+     * 解析一行
+     * line为读缓冲区上的只读视图，position到limit为一行（不含行尾），只在调用期间有效，不得保留
+     *
+     * @param line 一行
+     * @return 任务结果，不是任务结果的行返回null
+     */
+    TaskResult parse(ByteBuffer line);
+
+}
@@ -0,0 +1,35 @@
+package com.lingmoyun.transport;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 超时定时器，所有连接共用一个守护线程
+ *
+ * @author guoweifeng
+ */
+final class Timeouts {
+
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "cpcl-transport-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private Timeouts() {
+    }
+
+    /**
+     * millis毫秒后在定时器线程中执行task，task应很快返回
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long millis) {
+        return TIMER.schedule(task, millis, TimeUnit.MILLISECONDS);
+    }
+
+}
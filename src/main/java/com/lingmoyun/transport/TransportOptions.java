@@ -0,0 +1,112 @@
+package com.lingmoyun.transport;
+
+import java.nio.channels.AsynchronousChannelGroup;
+
+/**
+ * 打印机连接选项
+ * <p>
+ * 配置完成后只读使用，可在多个连接之间共享。
+ *
+ * @author guoweifeng
+ */
+public class TransportOptions {
+
+    /**
+     * 默认连接超时，单位：毫秒
+     */
+    public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+
+    /**
+     * 默认写超时，单位：毫秒
+     */
+    public static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 30_000;
+
+    static final TransportOptions DEFAULT = new TransportOptions();
+
+    /**
+     * 创建默认选项
+     *
+     * @return TransportOptions
+     */
+    public static TransportOptions newOptions() {
+        return new TransportOptions();
+    }
+
+    long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    long writeTimeoutMillis = DEFAULT_WRITE_TIMEOUT_MILLIS;
+    AsynchronousChannelGroup group;
+    boolean tcpNoDelay = true;
+    boolean keepAlive = true;
+    int sendBufferSize;
+
+    /**
+     * 连接超时
+     *
+     * @param millis 单位：毫秒，默认{@link #DEFAULT_CONNECT_TIMEOUT_MILLIS}，0表示不限
+     * @return TransportOptions
+     */
+    public TransportOptions connectTimeout(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("connectTimeout must be >= 0. " + millis);
+        this.connectTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * 写超时，一次写操作在该时间内没有完成时连接失败，打印机停止接收（缺纸、开盖、缓冲区满）时触发
+     *
+     * @param millis 单位：毫秒，默认{@link #DEFAULT_WRITE_TIMEOUT_MILLIS}，0表示不限
+     * @return TransportOptions
+     */
+    public TransportOptions writeTimeout(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("writeTimeout must be >= 0. " + millis);
+        this.writeTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * 异步通道组，即完成回调使用的线程池，大量打印机共用一个组
+     *
+     * @param group 通道组，默认null（系统默认组）
+     * @return TransportOptions
+     */
+    public TransportOptions group(AsynchronousChannelGroup group) {
+        this.group = group;
+        return this;
+    }
+
+    /**
+     * TCP_NODELAY，关闭Nagle算法，小任务立即发出
+     *
+     * @param tcpNoDelay 默认开启
+     * @return TransportOptions
+     */
+    public TransportOptions tcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    /**
+     * SO_KEEPALIVE，长连接检测打印机断电、断网
+     *
+     * @param keepAlive 默认开启
+     * @return TransportOptions
+     */
+    public TransportOptions keepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * SO_SNDBUF，系统发送缓冲区大小
+     * 写入系统缓冲区的数据即视为发送完成，缓冲区越小，排队字节数和吞吐量越接近打印机的实际接收情况
+     *
+     * @param bytes 单位：字节，默认0（系统默认值）
+     * @return TransportOptions
+     */
+    public TransportOptions sendBufferSize(int bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("sendBufferSize must be >= 0. " + bytes);
+        this.sendBufferSize = bytes;
+        return this;
+    }
+
+}
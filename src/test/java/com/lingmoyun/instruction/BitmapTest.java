@@ -0,0 +1,65 @@
+package com.lingmoyun.instruction;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Bitmap.of(BufferedImage)直接使用底层数组或查表转换，结果与逐像素getRGB一致
+ *
+ * @author guoweifeng
+ */
+public class BitmapTest {
+
+    /**
+     * 调色板0为黑色（默认）和1为黑色，子图的x平移含整字节和字节内的位
+     */
+    @Test
+    public void subImages() {
+        Random random = new Random(1);
+        for (boolean inverted : new boolean[]{false, true}) {
+            BufferedImage image = ImageBinarizerTest.packed(random, 1, inverted, 130, 24);
+            int[][] subImages = {{0, 0, 130, 24}, {0, 0, 128, 24}, {8, 2, 64, 10}, {16, 0, 40, 24}, {17, 3, 61, 20}, {3, 1, 64, 5}, {9, 0, 7, 1}};
+            for (int[] r : subImages) {
+                BufferedImage sub = image.getSubimage(r[0], r[1], r[2], r[3]);
+                assertSameAsGetRgb(inverted + " " + Arrays.toString(r), sub);
+            }
+        }
+    }
+
+    /**
+     * 1为黑色、按字节对齐且宽度为8的倍数时不复制
+     */
+    @Test
+    public void zeroCopy() {
+        BufferedImage image = ImageBinarizerTest.packed(new Random(2), 1, true, 128, 16);
+        BufferedImage sub = image.getSubimage(24, 5, 64, 8);
+        Bitmap bitmap = Bitmap.of(sub);
+        assertSame(((DataBufferByte) image.getRaster().getDataBuffer()).getData(), bitmap.data);
+        assertSameAsGetRgb("zero copy", sub);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMultiBitImages() {
+        Bitmap.of(ImageBinarizerTest.packed(new Random(3), 2, false, 8, 8));
+    }
+
+    private static void assertSameAsGetRgb(String message, BufferedImage image) {
+        Bitmap bitmap = Bitmap.of(image);
+        int byteWidth = bitmap.byteWidth;
+        byte[] expected = new byte[byteWidth * image.getHeight()];
+        new ImageBinarizer.Generic(image, CPCL.DEFAULT_THRESHOLD).binarize(0, image.getHeight(), expected, 0, byteWidth);
+        byte[] actual = new byte[expected.length];
+        for (int r = 0; r < bitmap.height; r++) {
+            System.arraycopy(bitmap.data, bitmap.off + r * bitmap.stride, actual, r * byteWidth, byteWidth);
+        }
+        assertArrayEquals(message, expected, actual);
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.lingmoyun.instruction;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CpclDelta每页的底图加变化区域，绘制结果与整页CG一致
+ *
+ * @author guoweifeng
+ */
+public class CpclDeltaTest {
+
+    private static final int X = 16;
+    private static final int Y = 7;
+    private static final int WIDTH = 402;
+    private static final int HEIGHT = 150;
+    private static final int PAGE_WIDTH = 440;
+    private static final int PAGE_HEIGHT = 170;
+
+    /**
+     * 序列号页：区域稳定后各页共用同一底图指令
+     */
+    @Test
+    public void serialNumbers() {
+        for (ImageOptions options : new ImageOptions[]{ImageOptions.DEFAULT, ImageOptions.newOptions().trimWhitespace(true)}) {
+            CpclDelta delta = CpclDelta.newDelta(X, Y, base(), null, options);
+            byte[] background = null;
+            for (int i = 0; i < 40; i++) {
+                CpclDelta.Page page = assertPage(delta, serial(1000 + i * 37));
+                if (i >= 20) {
+                    if (background == null) background = page.background();
+                    assertSame(background, page.background());
+                }
+            }
+            assertTrue(String.valueOf(delta.regionCount()), delta.regionCount() >= 1);
+        }
+    }
+
+    /**
+     * 与底图相同的页没有变化区域，底图指令即整页
+     */
+    @Test
+    public void unchangedPage() {
+        CpclDelta delta = CpclDelta.newDelta(X, Y, base());
+        CpclDelta.Page page = assertPage(delta, base());
+        assertEquals(0, page.regionCount());
+        assertEquals(0, page.changes().length);
+        assertEquals(0, delta.regionCount());
+    }
+
+    /**
+     * 新的变化区域出现时区域扩大，之前的区域仍然留白
+     * (12, 62)处为底图的黑色条纹，该页在此变白，底图不留白时会多出黑点
+     */
+    @Test
+    public void regionsGrow() {
+        CpclDelta delta = CpclDelta.newDelta(X, Y, base());
+        assertPage(delta, mark(base(), 300, 20));
+        int first = delta.regionCount();
+        CpclDelta.Page page = assertPage(delta, mark(base(), 20, 110));
+        assertTrue(delta.regionCount() > first);
+        assertEquals(delta.regionCount(), page.regionCount());
+        assertPage(delta, mark(mark(base(), 300, 20), 20, 110));
+        assertPage(delta, mark(base(), 12, 62));
+        assertPage(delta, base());
+    }
+
+    /**
+     * 变化超过一半面积时整页编码，底图指令为空
+     */
+    @Test
+    public void fallsBackToWholePage() {
+        CpclDelta delta = CpclDelta.newDelta(X, Y, base());
+        BufferedImage inverted = base();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) inverted.setRGB(x, y, inverted.getRGB(x, y) ^ 0xffffff);
+        }
+        CpclDelta.Page page = assertPage(delta, inverted);
+        assertEquals(1, page.regionCount());
+        assertEquals(0, page.background().length);
+        assertPage(delta, serial(42));
+        assertPage(delta, base());
+    }
+
+    /**
+     * 上下两块不相邻的变化合计超过一半面积，不合并也退化为整页
+     */
+    @Test
+    public void fallsBackForSeparateLargeRegions() {
+        CpclDelta delta = CpclDelta.newDelta(X, Y, base());
+        BufferedImage image = base();
+        for (int y = 0; y < HEIGHT; y++) {
+            if (y >= 45 && y < HEIGHT - 45) continue;
+            for (int x = 0; x < WIDTH; x++) image.setRGB(x, y, image.getRGB(x, y) ^ 0xffffff);
+        }
+        CpclDelta.Page page = assertPage(delta, image);
+        assertEquals(1, page.regionCount());
+        assertEquals(0, page.background().length);
+    }
+
+    /**
+     * 多个线程同时编码，区域在同步块中扩大，每页仍然正确
+     */
+    @Test
+    public void concurrentPages() throws Exception {
+        CpclDelta delta = CpclDelta.newDelta(X, Y, base());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                int n = i;
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    BufferedImage page = n % 3 == 0 ? mark(serial(n), 20 + n * 10, 100) : serial(n * 101);
+                    assertPage(delta, page);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void builderWritesBackgroundAndChanges() {
+        CpclDelta delta = CpclDelta.newDelta(X, Y, base());
+        BufferedImage image = serial(7);
+        byte[] cpcl = CpclBuilder.newBuilder().area(0, 203, PAGE_HEIGHT, 1).image(delta, image).formPrint().build();
+        assertEquals(plain(image), CpclRenderer.render(cpcl, PAGE_WIDTH, PAGE_HEIGHT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherSize() {
+        CpclDelta.newDelta(X, Y, base()).diff(new BufferedImage(WIDTH, HEIGHT + 1, BufferedImage.TYPE_INT_RGB));
+    }
+
+    private static CpclDelta.Page assertPage(CpclDelta delta, BufferedImage image) {
+        CpclDelta.Page page = delta.diff(image);
+        assertEquals(plain(image), CpclRenderer.render(page.toByteArray(), PAGE_WIDTH, PAGE_HEIGHT));
+        return page;
+    }
+
+    private static CpclRenderer plain(BufferedImage image) {
+        return CpclRenderer.render(CpclBuilder.newBuilder().imageCG(X, Y, image).build(), PAGE_WIDTH, PAGE_HEIGHT);
+    }
+
+    /**
+     * 底图：边框、横线和条纹
+     */
+    private static BufferedImage base() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setColor(Color.BLACK);
+        g.drawRect(2, 2, WIDTH - 5, HEIGHT - 5);
+        g.fillRect(10, 40, WIDTH - 20, 3);
+        for (int x = 12; x < 200; x += 7) g.fillRect(x, 60, 3, 30);
+        g.setColor(Color.GRAY);
+        g.fillRect(220, 60, 100, 30);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * 底图加上以七段数码管样式绘制的序列号
+     */
+    private static BufferedImage serial(int number) {
+        BufferedImage image = base();
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLACK);
+        String digits = String.format("%06d", number);
+        // 每个数字点亮的段：上、右上、右下、下、左下、左上、中
+        int[] segments = {0x3f, 0x06, 0x5b, 0x4f, 0x66, 0x6d, 0x7d, 0x07, 0x7f, 0x6f};
+        for (int i = 0; i < digits.length(); i++) {
+            int s = segments[digits.charAt(i) - '0'];
+            int x = 250 + i * 23;
+            int y = 100;
+            if ((s & 0x01) != 0) g.fillRect(x + 3, y, 12, 3);
+            if ((s & 0x02) != 0) g.fillRect(x + 15, y + 3, 3, 12);
+            if ((s & 0x04) != 0) g.fillRect(x + 15, y + 18, 3, 12);
+            if ((s & 0x08) != 0) g.fillRect(x + 3, y + 30, 12, 3);
+            if ((s & 0x10) != 0) g.fillRect(x, y + 18, 3, 12);
+            if ((s & 0x20) != 0) g.fillRect(x, y + 3, 3, 12);
+            if ((s & 0x40) != 0) g.fillRect(x + 3, y + 15, 12, 3);
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * 在(x, y)处加一个小方块，黑色区域中为白色
+     */
+    private static BufferedImage mark(BufferedImage image, int x, int y) {
+        for (int dy = 0; dy < 9; dy++) {
+            for (int dx = 0; dx < 9; dx++) image.setRGB(x + dx, y + dy, image.getRGB(x + dx, y + dy) ^ 0xffffff);
+        }
+        return image;
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.lingmoyun.instruction;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 按打印机的方式绘制CG、GG、EG图片指令（只画黑点，不清除白点），其他指令忽略，仅用于测试
+ * GG数据用{@link Lzo1xDecompressor}解压
+ *
+ * @author guoweifeng
+ */
+final class CpclRenderer {
+
+    final int width;
+    final int height;
+    private final boolean[] pixels;
+
+    CpclRenderer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new boolean[width * height];
+    }
+
+    /**
+     * 在空白页上绘制
+     *
+     * @param cpcl   指令
+     * @param width  页面宽，单位：px
+     * @param height 页面高，单位：px
+     * @return CpclRenderer
+     */
+    static CpclRenderer render(byte[] cpcl, int width, int height) {
+        CpclRenderer page = new CpclRenderer(width, height);
+        page.draw(cpcl);
+        return page;
+    }
+
+    /**
+     * 叠加绘制
+     *
+     * @param cpcl 指令
+     */
+    void draw(byte[] cpcl) {
+        int p = 0;
+        while (p < cpcl.length) {
+            String name = p + 3 <= cpcl.length ? new String(cpcl, p, 3, StandardCharsets.US_ASCII) : "";
+            if (name.equals("CG ") || name.equals("GG ") || name.equals("EG ")) {
+                int[] fields = new int[name.equals("GG ") ? 5 : 4];
+                p += 3;
+                for (int i = 0; i < fields.length; i++) {
+                    int end = p;
+                    while (cpcl[end] != ' ') end++;
+                    fields[i] = Integer.parseInt(new String(cpcl, p, end - p, StandardCharsets.US_ASCII));
+                    p = end + 1;
+                }
+                int bw = fields[0];
+                int h = fields[1];
+                byte[] bitmap;
+                if (name.equals("CG ")) {
+                    bitmap = Arrays.copyOfRange(cpcl, p, p + bw * h);
+                    p += bitmap.length;
+                } else if (name.equals("GG ")) {
+                    bitmap = Lzo1xDecompressor.decompress(Arrays.copyOfRange(cpcl, p, p + fields[4]), fields[4], bw * h);
+                    if (bitmap.length != bw * h) throw new IllegalStateException("GG data " + bitmap.length + " != " + bw * h);
+                    p += fields[4];
+                } else {
+                    bitmap = new byte[bw * h];
+                    for (int i = 0; i < bitmap.length; i++, p += 2) {
+                        bitmap[i] = (byte) Integer.parseInt(new String(cpcl, p, 2, StandardCharsets.US_ASCII), 16);
+                    }
+                }
+                paint(bitmap, bw, h, fields[2], fields[3]);
+            }
+            while (p < cpcl.length && cpcl[p++] != '\n') {
+                // 跳到行尾
+            }
+        }
+    }
+
+    boolean black(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    private void paint(byte[] bitmap, int bw, int h, int x, int y) {
+        for (int r = 0; r < h; r++) {
+            for (int i = 0; i < bw * 8; i++) {
+                if ((bitmap[r * bw + (i >> 3)] & (0x80 >> (i & 7))) == 0) continue;
+                int px = x + i;
+                int py = y + r;
+                if (px < 0 || py < 0 || px >= width || py >= height) throw new IllegalStateException("dot outside page: " + px + "," + py);
+                pixels[py * width + px] = true;
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CpclRenderer && Arrays.equals(pixels, ((CpclRenderer) o).pixels);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(pixels);
+    }
+
+    @Override
+    public String toString() {
+        int black = 0;
+        for (boolean b : pixels) if (b) black++;
+        return "CpclRenderer{" + width + "x" + height + ", black=" + black + "}";
+    }
+
+}
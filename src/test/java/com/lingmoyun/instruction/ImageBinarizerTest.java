@@ -0,0 +1,160 @@
+package com.lingmoyun.instruction;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 直接读取Raster的二值化与逐像素getRGB的结果一致
+ *
+ * @author guoweifeng
+ */
+public class ImageBinarizerTest {
+
+    private static final int[][] SUB_IMAGES = {
+            {0, 0, 61, 20}, {17, 3, 61, 20}, {8, 1, 64, 9}, {1, 0, 7, 5}, {3, 2, 90, 11}, {40, 0, 1, 1}, {23, 5, 33, 17}
+    };
+
+    /**
+     * 1、2、4位索引色的子图，x方向平移超过一个字节
+     */
+    @Test
+    public void packedSubImages() {
+        Random random = new Random(1);
+        for (int bits : new int[]{1, 2, 4}) {
+            for (boolean inverted : new boolean[]{false, true}) {
+                BufferedImage image = packed(random, bits, inverted, 101, 31);
+                for (int[] r : SUB_IMAGES) {
+                    BufferedImage sub = image.getSubimage(r[0], r[1], r[2], r[3]);
+                    for (int threshold : new int[]{60, 128, 200}) {
+                        assertSameAsGetRgb(bits + " bits " + inverted + " " + r[0] + "," + r[1], sub, threshold);
+                    }
+                }
+                assertSameAsGetRgb(bits + " bits", image, 128);
+            }
+        }
+    }
+
+    /**
+     * 子图的子图，平移累加
+     */
+    @Test
+    public void nestedSubImage() {
+        BufferedImage image = packed(new Random(2), 1, false, 120, 40);
+        BufferedImage sub = image.getSubimage(9, 4, 100, 30).getSubimage(13, 2, 70, 20);
+        assertSameAsGetRgb("nested", sub, 128);
+    }
+
+    /**
+     * 内存中的8位、16位灰度图，包括子图，结果与getRGB（经线性灰度到sRGB转换）一致
+     */
+    @Test
+    public void grayImages() {
+        Random random = new Random(3);
+        for (int type : new int[]{BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY}) {
+            BufferedImage image = gray(random, type, 83, 21);
+            for (int threshold : new int[]{0, 60, 128, 200, 254, 255}) {
+                assertSameAsGetRgb(type + " " + threshold, image, threshold);
+            }
+            assertSameAsGetRgb(type + " sub", image.getSubimage(11, 4, 50, 13), 128);
+        }
+    }
+
+    /**
+     * 读取的灰度图文件与基线一致：绘制到TYPE_INT_RGB后二值化，灰度值不经过sRGB转换
+     */
+    @Test
+    public void grayFiles() throws IOException {
+        Random random = new Random(4);
+        for (int type : new int[]{BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY}) {
+            BufferedImage image = gray(random, type, 77, 300);
+            File file = File.createTempFile("gray", ".png");
+            try {
+                ImageIO.write(image, "png", file);
+                BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = rgb.createGraphics();
+                g.drawImage(ImageIO.read(file), 0, 0, null);
+                g.dispose();
+                byte[] expected = CPCL.ImageUtils.image2Bitmap(rgb, null);
+                BufferedImage read = CPCL.ImageUtils.readImage(file.getPath());
+                assertTrue(String.valueOf(read), ImageBinarizer.isNative(read));
+                if (type == BufferedImage.TYPE_BYTE_GRAY) {
+                    // 8位灰度图不复制为RGB
+                    assertTrue(String.valueOf(read), read.getType() != BufferedImage.TYPE_INT_RGB);
+                }
+                assertArrayEquals("readImage " + type, expected, CPCL.ImageUtils.image2Bitmap(read, null));
+                ImageOptions banded = ImageOptions.newOptions().decodeBandPixels(77 * 16);
+                Bitmap bitmap = CPCL.ImageUtils.readBitmap(file.getPath(), null, banded);
+                assertArrayEquals("banded " + type, expected, Arrays.copyOf(bitmap.data, expected.length));
+            } finally {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    static void assertSameAsGetRgb(String message, BufferedImage image, int threshold) {
+        ImageBinarizer binarizer = ImageBinarizer.of(image, threshold);
+        assertTrue(message, ImageBinarizer.isNative(image));
+        int byteWidth = binarizer.byteWidth;
+        byte[] actual = new byte[byteWidth * image.getHeight()];
+        binarizer.binarize(0, image.getHeight(), actual, 0, byteWidth);
+        byte[] expected = new byte[actual.length];
+        ImageBinarizer generic = new ImageBinarizer.Generic(image, threshold);
+        generic.binarize(0, image.getHeight(), expected, 0, byteWidth);
+        assertArrayEquals(message, expected, actual);
+        int[] expectedGrey = new int[image.getWidth()];
+        int[] actualGrey = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            generic.grey(y, expectedGrey);
+            binarizer.grey(y, actualGrey);
+            assertArrayEquals(message + " grey row " + y, expectedGrey, actualGrey);
+        }
+    }
+
+    /**
+     * 随机灰度值的灰度图，含黑、白两端
+     */
+    static BufferedImage gray(Random random, int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        WritableRaster raster = image.getRaster();
+        int max = type == BufferedImage.TYPE_BYTE_GRAY ? 255 : 65535;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = random.nextInt(max + 1);
+                raster.setSample(x, y, 0, x == 0 ? 0 : x == 1 ? max : v);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * 随机像素的TYPE_BYTE_BINARY图片，调色板为由黑到白（inverted时由白到黑）的灰阶
+     */
+    static BufferedImage packed(Random random, int bits, boolean inverted, int width, int height) {
+        int size = 1 << bits;
+        byte[] grey = new byte[size];
+        for (int v = 0; v < size; v++) {
+            int g = v * 255 / (size - 1);
+            grey[v] = (byte) (inverted ? 255 - g : g);
+        }
+        IndexColorModel cm = new IndexColorModel(bits, size, grey, grey, grey);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, cm);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) raster.setSample(x, y, 0, random.nextInt(size));
+        }
+        return image;
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.lingmoyun.instruction;
+
+import java.util.Arrays;
+
+/**
+ * LZO1X解压，按lzo1x_decompress_safe逐条移植，仅用于测试
+ * 回看越界、输入未用完或结束标记不正确时抛出IllegalStateException，输入或输出越界时抛出IndexOutOfBoundsException
+ *
+ * @author guoweifeng
+ */
+final class Lzo1xDecompressor {
+
+    private static final int LOOP = 0;
+    private static final int FIRST_LITERAL_RUN = 1;
+    private static final int MATCH = 2;
+    private static final int MATCH_NEXT = 3;
+
+    private Lzo1xDecompressor() {
+    }
+
+    /**
+     * 解压
+     *
+     * @param in       压缩数据
+     * @param inLen    压缩数据长度
+     * @param capacity 解压后最大长度
+     * @return 解压数据
+     */
+    static byte[] decompress(byte[] in, int inLen, int capacity) {
+        return decompress(in, inLen, capacity, null);
+    }
+
+    /**
+     * 解压，并统计M4匹配（偏移超过16K）的个数
+     *
+     * @param in       压缩数据
+     * @param inLen    压缩数据长度
+     * @param capacity 解压后最大长度
+     * @param m4       不为null时m4[0]累加M4匹配个数
+     * @return 解压数据
+     */
+    static byte[] decompress(byte[] in, int inLen, int capacity, int[] m4) {
+        byte[] out = new byte[capacity];
+        int ip = 0;
+        int op = 0;
+        int t;
+        int state;
+        if ((in[0] & 0xff) > 17) {
+            t = (in[ip++] & 0xff) - 17;
+            if (t < 4) {
+                state = MATCH_NEXT;
+            } else {
+                System.arraycopy(in, ip, out, op, t);
+                op += t;
+                ip += t;
+                state = FIRST_LITERAL_RUN;
+            }
+        } else {
+            t = 0;
+            state = LOOP;
+        }
+        for (; ; ) {
+            if (state == LOOP) {
+                t = in[ip++] & 0xff;
+                if (t >= 16) {
+                    state = MATCH;
+                    continue;
+                }
+                if (t == 0) {
+                    while (in[ip] == 0) {
+                        t += 255;
+                        ip++;
+                    }
+                    t += 15 + (in[ip++] & 0xff);
+                }
+                t += 3;
+                System.arraycopy(in, ip, out, op, t);
+                op += t;
+                ip += t;
+                state = FIRST_LITERAL_RUN;
+                continue;
+            }
+            if (state == FIRST_LITERAL_RUN) {
+                t = in[ip++] & 0xff;
+                if (t >= 16) {
+                    state = MATCH;
+                    continue;
+                }
+                int mPos = op - (1 + 0x0800) - (t >> 2) - ((in[ip++] & 0xff) << 2);
+                if (mPos < 0) throw new IllegalStateException("lookbehind overrun at " + op);
+                for (int k = 0; k < 3; k++) out[op++] = out[mPos++];
+                t = in[ip - 2] & 3;
+                state = t == 0 ? LOOP : MATCH_NEXT;
+                continue;
+            }
+            if (state == MATCH_NEXT) {
+                System.arraycopy(in, ip, out, op, t);
+                op += t;
+                ip += t;
+                t = in[ip++] & 0xff;
+            }
+            int mPos;
+            int len;
+            if (t >= 64) {
+                mPos = op - 1 - ((t >> 2) & 7) - ((in[ip++] & 0xff) << 3);
+                len = (t >> 5) + 1;
+            } else if (t >= 32) {
+                t &= 31;
+                if (t == 0) {
+                    while (in[ip] == 0) {
+                        t += 255;
+                        ip++;
+                    }
+                    t += 31 + (in[ip++] & 0xff);
+                }
+                mPos = op - 1 - ((in[ip] & 0xff) >> 2) - ((in[ip + 1] & 0xff) << 6);
+                ip += 2;
+                len = t + 2;
+            } else if (t >= 16) {
+                mPos = op - ((t & 8) << 11);
+                t &= 7;
+                if (t == 0) {
+                    while (in[ip] == 0) {
+                        t += 255;
+                        ip++;
+                    }
+                    t += 7 + (in[ip++] & 0xff);
+                }
+                mPos -= ((in[ip] & 0xff) >> 2) + ((in[ip + 1] & 0xff) << 6);
+                ip += 2;
+                if (mPos == op) {
+                    if (t != 1) throw new IllegalStateException("bad end marker " + t);
+                    if (ip != inLen) throw new IllegalStateException("input not consumed: " + ip + " != " + inLen);
+                    return Arrays.copyOf(out, op);
+                }
+                mPos -= 0x4000;
+                len = t + 2;
+                if (m4 != null) m4[0]++;
+            } else {
+                mPos = op - 1 - (t >> 2) - ((in[ip++] & 0xff) << 2);
+                len = 2;
+            }
+            if (mPos < 0) throw new IllegalStateException("lookbehind overrun at " + op);
+            for (int k = 0; k < len; k++) out[op++] = out[mPos++];
+            t = in[ip - 2] & 3;
+            state = t == 0 ? LOOP : MATCH_NEXT;
+        }
+    }
+
+}
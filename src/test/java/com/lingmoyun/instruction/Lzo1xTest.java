@@ -0,0 +1,157 @@
+package com.lingmoyun.instruction;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lzo1x压缩后用{@link Lzo1xDecompressor}解压，与源数据一致
+ *
+ * @author guoweifeng
+ */
+public class Lzo1xTest {
+
+    private static final int BLOCK_SIZE = 49152;
+
+    @Test
+    public void empty() {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    public void tiny() {
+        Random random = new Random(1);
+        for (int len = 1; len <= 20; len++) {
+            byte[] data = new byte[len];
+            random.nextBytes(data);
+            assertRoundTrip(data);
+            assertRoundTrip(new byte[len]);
+            byte[] pattern = new byte[len];
+            for (int i = 0; i < len; i++) pattern[i] = (byte) (i % 3);
+            assertRoundTrip(pattern);
+        }
+    }
+
+    @Test
+    public void blockBoundaries() {
+        Random random = new Random(2);
+        for (int len : new int[]{BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, BLOCK_SIZE + 20, BLOCK_SIZE + 21, 2 * BLOCK_SIZE, 2 * BLOCK_SIZE + 7}) {
+            assertRoundTrip(new byte[len]);
+            assertRoundTrip(sparse(random, len));
+            byte[] data = new byte[len];
+            random.nextBytes(data);
+            assertRoundTrip(data);
+        }
+    }
+
+    /**
+     * 相同内容间隔超过16K，只能以M4匹配（偏移0x4000-0xBFFF）
+     */
+    @Test
+    public void farMatches() {
+        Random random = new Random(3);
+        for (int distance : new int[]{0x4001, 0x6000, 0x8000, 0xbfff}) {
+            byte[] data = new byte[distance + 4096];
+            random.nextBytes(data);
+            System.arraycopy(data, 0, data, distance, 4096);
+            assertRoundTrip(data);
+            int[] m4 = new int[1];
+            byte[] dst = new byte[Lzo1x.maxCompressedLength(data.length)];
+            int len = Lzo1x.compressHigh(data, 0, data.length, dst, 0);
+            assertArrayEquals(data, Lzo1xDecompressor.decompress(dst, len, data.length, m4));
+            assertTrue("distance " + distance, m4[0] > 0);
+            assertTrue("distance " + distance + ": " + len, len < data.length - 3000);
+        }
+    }
+
+    @Test
+    public void incompressible() {
+        Random random = new Random(4);
+        for (int len : new int[]{21, 1000, 65536, 200_000}) {
+            byte[] data = new byte[len];
+            random.nextBytes(data);
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    public void bitmaps() {
+        Random random = new Random(5);
+        for (int i = 0; i < 200; i++) {
+            int len = 1 + random.nextInt(i < 100 ? 4096 : 150_000);
+            assertRoundTrip(sparse(random, len));
+            assertRoundTrip(runs(random, len));
+        }
+    }
+
+    @Test
+    public void offsets() {
+        Random random = new Random(6);
+        byte[] data = sparse(random, 30_000);
+        for (boolean high : new boolean[]{false, true}) {
+            byte[] dst = new byte[Lzo1x.maxCompressedLength(20_000) + 13];
+            Arrays.fill(dst, (byte) 0x5a);
+            int len = high ? Lzo1x.compressHigh(data, 5000, 20_000, dst, 13) : Lzo1x.compress(data, 5000, 20_000, dst, 13);
+            for (int i = 0; i < 13; i++) assertEquals(0x5a, dst[i]);
+            byte[] compressed = Arrays.copyOfRange(dst, 13, 13 + len);
+            assertArrayEquals(Arrays.copyOfRange(data, 5000, 25_000), Lzo1xDecompressor.decompress(compressed, len, 20_000));
+        }
+    }
+
+    @Test
+    public void highIsSmaller() {
+        Random random = new Random(7);
+        byte[] data = runs(random, 100_000);
+        byte[] dst = new byte[Lzo1x.maxCompressedLength(data.length)];
+        int fast = Lzo1x.compress(data, 0, data.length, dst, 0);
+        int high = Lzo1x.compressHigh(data, 0, data.length, dst, 0);
+        assertTrue(fast + " <= " + high, high < fast);
+    }
+
+    private static void assertRoundTrip(byte[] data) {
+        for (boolean high : new boolean[]{false, true}) {
+            int max = Lzo1x.maxCompressedLength(data.length);
+            byte[] dst = new byte[max];
+            int len = high ? Lzo1x.compressHigh(data, 0, data.length, dst, 0) : Lzo1x.compress(data, 0, data.length, dst, 0);
+            String mode = (high ? "HIGH" : "FAST") + " length " + data.length;
+            assertTrue(mode, len > 0 && len <= max);
+            assertArrayEquals(mode, data, Lzo1xDecompressor.decompress(dst, len, data.length));
+        }
+    }
+
+    /**
+     * 稀疏的黑白位图：大部分为0，少量随机字节
+     */
+    private static byte[] sparse(Random random, int len) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len / 20; i++) data[random.nextInt(len)] = (byte) random.nextInt(256);
+        return data;
+    }
+
+    /**
+     * 重复的短片段和随机长度的连续相同字节，类似文字、条码的位图行
+     */
+    private static byte[] runs(Random random, int len) {
+        byte[] data = new byte[len];
+        byte[] pattern = new byte[64];
+        random.nextBytes(pattern);
+        int p = 0;
+        while (p < len) {
+            int n = Math.min(len - p, 1 + random.nextInt(300));
+            if (random.nextBoolean()) {
+                Arrays.fill(data, p, p + n, (byte) (random.nextBoolean() ? 0 : 0xff));
+            } else {
+                int from = random.nextInt(pattern.length);
+                for (int i = 0; i < n; i++) data[p + i] = pattern[(from + i) % pattern.length];
+            }
+            p += n;
+        }
+        return data;
+    }
+
+}
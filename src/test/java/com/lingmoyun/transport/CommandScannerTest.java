@@ -0,0 +1,193 @@
+package com.lingmoyun.transport;
+
+import com.lingmoyun.instruction.CpclBuilder;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CommandScanner指令边界：二进制数据中的换行、负坐标、任意位置分块输入
+ *
+ * @author guoweifeng
+ */
+public class CommandScannerTest {
+
+    @Test
+    public void textLines() {
+        Doc doc = new Doc().text("! 0 200 200 210 1\r\n").text("TEXT 4 0 30 40 Hello\r\n").text("FORM\r\n").text("PRINT\r\n");
+        assertEnds(doc);
+    }
+
+    @Test
+    public void cgPayloadWithNewlines() {
+        byte[] payload = new byte[6];
+        Arrays.fill(payload, (byte) '\n');
+        Doc doc = new Doc().text("! 0 200 200 210 1\r\n").binary("CG 2 3 10 20 ", payload).text("PRINT\r\n");
+        assertEnds(doc);
+    }
+
+    @Test
+    public void ggPayloadWithNewlines() {
+        byte[] payload = {'\n', 0, '\n', '\n', 'C', 'G', '\n'};
+        Doc doc = new Doc().binary("GG 10 5 0 0 7 ", payload).binary("GG 10 5 0 5 7 ", payload).text("PRINT\r\n");
+        assertEnds(doc);
+    }
+
+    @Test
+    public void negativeCoordinates() {
+        byte[] payload = {'\n', '\n', '\n', '\n'};
+        Doc doc = new Doc().binary("CG 2 2 -5 -10 ", payload).binary("GG 2 2 -8 0 4 ", payload).text("PRINT\n");
+        assertEnds(doc);
+    }
+
+    /**
+     * EG数据为十六进制文本，遇到换行即结束
+     */
+    @Test
+    public void egIsText() {
+        Doc doc = new Doc().text("EG 2 2 0 0 0A0A0A0A\r\n").text("PRINT\r\n");
+        assertEnds(doc);
+    }
+
+    /**
+     * 格式不符的头部按文本指令处理，在第一个换行处结束
+     */
+    @Test
+    public void malformedHeaders() {
+        Doc doc = new Doc()
+                .text("CG abc\n")
+                .text("CG 2 x 0 0 \n")
+                .text("CG 1 1 0 0\n")
+                .text("CG 0 5 0 0 \n")
+                .text("CG 1 1 0 0  \n")
+                .text("CG 1 1 0 -- \n")
+                .text("CG 1 1 0 3- \n")
+                .text("GG 1 1 0 0 0 \n")
+                .text("CG 99999999999 1 0 0 \n")
+                .text("CGX 1 1 0 0 \n")
+                .text("CX 1 1 0 0 \n")
+                .text("GX 1 1 0 0 \n")
+                .text(" CG 1 1 0 0 \n")
+                .text("\n")
+                .binary("CG 1 1 0 0 ", new byte[]{'\n'});
+        assertEnds(doc);
+    }
+
+    /**
+     * Builder生成的CG、GG、EG指令，位图中含0x0A
+     */
+    @Test
+    public void builderImages() {
+        BufferedImage image = new BufferedImage(200, 120, BufferedImage.TYPE_BYTE_BINARY);
+        Random random = new Random(1);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                boolean black = (x / 4 + y) % 3 == 0 || random.nextInt(10) == 0;
+                image.setRGB(x, y, black ? 0xff000000 : 0xffffffff);
+            }
+        }
+        byte[] data = CpclBuilder.newBuilder().area(0, 203, 400, 1)
+                .imageCG(0, 0, image).imageGG(0, 130, image).imageGG(0, 260, 4096, image).imageEG(0, 400, image)
+                .text(8, 0, 10, 10, "end").formPrint().build();
+        List<Integer> ends = ends(data, 1);
+        assertEquals(data.length, (int) ends.get(ends.size() - 1));
+        int newlines = 0;
+        for (byte b : data) if (b == '\n') newlines++;
+        assertTrue(ends.size() + " < " + newlines, ends.size() < newlines);
+        for (int chunk : new int[]{2, 7, 100, 4096}) assertEquals(lastPerChunk(ends, chunk, data.length), ends(data, chunk));
+        assertSplits(data, ends);
+    }
+
+    private static void assertEnds(Doc doc) {
+        byte[] data = doc.bytes();
+        assertEquals(doc.ends, ends(data, 1));
+        for (int chunk = 2; chunk <= data.length; chunk++) {
+            List<Integer> ends = ends(data, chunk);
+            assertEquals("chunk " + chunk, lastPerChunk(doc.ends, chunk, data.length), ends);
+        }
+        assertSplits(data, doc.ends);
+    }
+
+    /**
+     * 在每个位置拆成两次输入，两次返回的结束位置与整体扫描一致
+     */
+    private static void assertSplits(byte[] data, List<Integer> expected) {
+        for (int s = 0; s <= data.length; s++) {
+            CommandScanner scanner = new CommandScanner();
+            int first = scanner.scan(data, 0, s);
+            int second = scanner.scan(data, s, data.length);
+            int firstExpected = -1;
+            int secondExpected = -1;
+            for (int end : expected) {
+                if (end <= s) firstExpected = end;
+                else secondExpected = end;
+            }
+            assertEquals("split " + s, firstExpected, first);
+            assertEquals("split " + s, secondExpected, second);
+        }
+    }
+
+    /**
+     * 按chunk大小分块输入，收集每次返回的结束位置
+     */
+    private static List<Integer> ends(byte[] data, int chunk) {
+        CommandScanner scanner = new CommandScanner();
+        List<Integer> ends = new ArrayList<>();
+        for (int p = 0; p < data.length; p += chunk) {
+            int end = scanner.scan(data, p, Math.min(data.length, p + chunk));
+            if (end >= 0) ends.add(end);
+        }
+        return ends;
+    }
+
+    /**
+     * 每块中最后一个结束位置
+     */
+    private static List<Integer> lastPerChunk(List<Integer> ends, int chunk, int length) {
+        List<Integer> result = new ArrayList<>();
+        for (int p = 0; p < length; p += chunk) {
+            int last = -1;
+            for (int end : ends) {
+                if (end > p && end <= p + chunk) last = end;
+            }
+            if (last >= 0) result.add(last);
+        }
+        return result;
+    }
+
+    /**
+     * 测试数据和其中每条指令的结束位置
+     */
+    private static final class Doc {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final List<Integer> ends = new ArrayList<>();
+
+        Doc text(String line) {
+            byte[] b = line.getBytes(StandardCharsets.US_ASCII);
+            out.write(b, 0, b.length);
+            ends.add(out.size());
+            return this;
+        }
+
+        Doc binary(String header, byte[] payload) {
+            byte[] b = header.getBytes(StandardCharsets.US_ASCII);
+            out.write(b, 0, b.length);
+            out.write(payload, 0, payload.length);
+            return text("\r\n");
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.lingmoyun.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地模拟打印机，用于测试
+ * 接收并记录数据，可限制接收速度、暂停接收、接收一定字节后断开连接，可向所有连接回传数据
+ *
+ * @author guoweifeng
+ */
+final class FakePrinter implements Closeable {
+
+    /**
+     * 启动模拟打印机，接收缓冲区较小，发送方排队的数据更接近实际
+     *
+     * @return FakePrinter
+     */
+    static FakePrinter start() throws IOException {
+        return new FakePrinter();
+    }
+
+    /**
+     * 已关闭端口的地址，连接被拒绝
+     */
+    static InetSocketAddress refusedAddress() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        }
+    }
+
+    private final ServerSocket server;
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private volatile long bytesPerSecond;
+    private volatile long dieAfter;
+    private volatile boolean paused;
+    private volatile int connections;
+
+    private FakePrinter() throws IOException {
+        server = new ServerSocket();
+        server.setReceiveBufferSize(16 << 10);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread acceptor = new Thread(this::accept, "fake-printer-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * 接收速度，0表示不限
+     */
+    FakePrinter bytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * 每个连接接收超过该字节数后断开，0表示不断开
+     */
+    FakePrinter dieAfter(long bytes) {
+        this.dieAfter = bytes;
+        return this;
+    }
+
+    /**
+     * 暂停接收，发送方的数据积压在系统缓冲区和发送队列中
+     */
+    FakePrinter paused(boolean paused) {
+        this.paused = paused;
+        return this;
+    }
+
+    InetSocketAddress address() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+    }
+
+    byte[] received() {
+        synchronized (received) {
+            return received.toByteArray();
+        }
+    }
+
+    int receivedBytes() {
+        synchronized (received) {
+            return received.size();
+        }
+    }
+
+    int connections() {
+        return connections;
+    }
+
+    /**
+     * 等待接收到至少bytes字节
+     */
+    boolean awaitReceived(int bytes, long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (receivedBytes() < bytes) {
+            if (System.nanoTime() - deadline > 0) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /**
+     * 向所有连接回传数据
+     */
+    void reply(byte[] data) throws IOException {
+        for (Socket socket : sockets) {
+            OutputStream out = socket.getOutputStream();
+            synchronized (socket) {
+                out.write(data);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * 关闭所有连接，不再接受新连接
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : sockets) socket.close();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            sockets.add(socket);
+            connections++;
+            Thread reader = new Thread(() -> read(socket), "fake-printer-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    private void read(Socket socket) {
+        byte[] buffer = new byte[4096];
+        long total = 0;
+        long start = System.nanoTime();
+        try (InputStream in = socket.getInputStream()) {
+            while (true) {
+                while (paused) Thread.sleep(5);
+                long rate = bytesPerSecond;
+                int n = in.read(buffer, 0, rate > 0 ? (int) Math.min(buffer.length, Math.max(1, rate / 100)) : buffer.length);
+                if (n < 0) break;
+                synchronized (received) {
+                    received.write(buffer, 0, n);
+                }
+                total += n;
+                long limit = dieAfter;
+                if (limit > 0 && total >= limit) break;
+                if (rate > 0) {
+                    long due = start + total * 1_000_000_000L / rate;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // 连接关闭
+        } finally {
+            sockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.lingmoyun.transport;
+
+import com.lingmoyun.instruction.CpclBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PrinterConnection与本地模拟打印机
+ *
+ * @author guoweifeng
+ */
+public class PrinterConnectionTest {
+
+    private FakePrinter printer;
+    private PrinterConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        printer = FakePrinter.start();
+        connection = PrinterConnection.connect(printer.address(), null).get(5, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+        printer.close();
+    }
+
+    @Test
+    public void pipelinedJobsArriveInOrder() throws Exception {
+        Random random = new Random(1);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            byte[] job = new byte[1 + random.nextInt(20_000)];
+            random.nextBytes(job);
+            expected.write(job);
+            futures.add(connection.send(job));
+        }
+        awaitAll(futures, 30);
+        assertEquals(500, connection.jobsWritten());
+        assertEquals(expected.size(), connection.bytesWritten());
+        assertEquals(0, connection.queuedBytes());
+        assertTrue(printer.awaitReceived(expected.size(), 5000));
+        assertArrayEquals(expected.toByteArray(), printer.received());
+    }
+
+    @Test
+    public void streamingBuilder() throws Exception {
+        OutputStream out = connection.outputStream();
+        CpclBuilder.to(out, 512).area(0, 203, 400, 1).text(8, 0, 10, 10, "hello 你好").formPrint().flush();
+        out.flush();
+        byte[] expected = CpclBuilder.newBuilder().area(0, 203, 400, 1).text(8, 0, 10, 10, "hello 你好").formPrint().build();
+        assertTrue(printer.awaitReceived(expected.length, 5000));
+        assertArrayEquals(expected, printer.received());
+    }
+
+    /**
+     * 打印机不接收时，输出流排队的数据不超过上限加一次写入，write阻塞
+     */
+    @Test
+    public void outputStreamBlocksAtHighWater() throws Exception {
+        printer.paused(true);
+        int highWater = 64 << 10;
+        byte[] data = new byte[4 << 20];
+        new Random(2).nextBytes(data);
+        OutputStream out = connection.outputStream(highWater);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int p = 0; p < data.length; p += 8192) out.write(data, p, 8192);
+                out.flush();
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        writer.start();
+        Thread.sleep(500);
+        assertTrue("writer should block", writer.isAlive());
+        assertTrue("queued " + connection.queuedBytes(), connection.queuedBytes() <= highWater + 8192);
+        printer.paused(false);
+        writer.join(30_000);
+        assertFalse(writer.isAlive());
+        assertEquals(null, error.get());
+        assertTrue(printer.awaitReceived(data.length, 5000));
+        assertArrayEquals(data, printer.received());
+    }
+
+    @Test
+    public void writeTimeoutFailsQueuedJobs() throws Exception {
+        printer.paused(true);
+        PrinterConnection slow = PrinterConnection.connect(printer.address(), TransportOptions.newOptions().writeTimeout(300))
+                .get(5, TimeUnit.SECONDS);
+        CompletableFuture<Void> big = slow.send(new byte[16 << 20]);
+        CompletableFuture<Void> after = slow.send(new byte[10]);
+        assertTrue(cause(big) instanceof SocketTimeoutException);
+        assertTrue(cause(after) instanceof SocketTimeoutException);
+        assertFalse(slow.isOpen());
+        assertTrue(cause(slow.send(new byte[1])) instanceof SocketTimeoutException);
+    }
+
+    @Test
+    public void refusedConnect() throws Exception {
+        CompletableFuture<PrinterConnection> refused = PrinterConnection.connect(FakePrinter.refusedAddress(), null);
+        assertTrue(cause(refused) instanceof ConnectException);
+    }
+
+    @Test
+    public void sendAfterClose() throws Exception {
+        connection.close();
+        assertFalse(connection.isOpen());
+        assertTrue(cause(connection.send(new byte[1])) instanceof ClosedChannelException);
+        try {
+            connection.outputStream().write(1);
+            throw new AssertionError("write after close");
+        } catch (IOException e) {
+            assertTrue(e instanceof ClosedChannelException);
+        }
+    }
+
+    static Throwable cause(CompletableFuture<?> future) throws Exception {
+        return future.handle((v, e) -> e).get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 等待全部完成，任一失败时抛出其异常
+     */
+    static void awaitAll(List<? extends CompletableFuture<?>> futures, long seconds) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (CompletableFuture<?> future : futures) {
+            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.lingmoyun.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.lingmoyun.transport.PrinterConnectionTest.awaitAll;
+import static com.lingmoyun.transport.PrinterConnectionTest.cause;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PrinterPool与四台本地模拟打印机：快、慢、传输中断开、拒绝连接
+ *
+ * @author guoweifeng
+ */
+public class PrinterPoolTest {
+
+    private static final int JOB_SIZE = 20_000;
+
+    private FakePrinter fast;
+    private FakePrinter slow;
+    private FakePrinter dying;
+    private InetSocketAddress refused;
+    private PrinterPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        fast = FakePrinter.start().bytesPerSecond(2_000_000);
+        slow = FakePrinter.start().bytesPerSecond(500_000);
+        dying = FakePrinter.start().bytesPerSecond(1_000_000).dieAfter(200_000);
+        refused = FakePrinter.refusedAddress();
+        pool = PrinterPool.newPool(fast.address(), slow.address(), dying.address(), refused)
+                .options(TransportOptions.newOptions().sendBufferSize(16 << 10))
+                .retryDelay(60_000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        fast.close();
+        slow.close();
+        dying.close();
+    }
+
+    /**
+     * 所有任务完成，失败的任务改发其他打印机，快打印机分到的任务多于慢打印机
+     * 任务完成只表示已写入连接，断开的打印机上“完成”的任务可能没有收到，只检查正常的两台
+     */
+    @Test
+    public void balancesAndRetries() throws Exception {
+        int count = 150;
+        List<byte[]> jobs = new ArrayList<>();
+        List<CompletableFuture<InetSocketAddress>> futures = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < count; i++) {
+            byte[] job = job(random, i);
+            jobs.add(job);
+            futures.add(pool.submit(job));
+        }
+        awaitAll(futures, 60);
+        Map<InetSocketAddress, Integer> counts = new HashMap<>();
+        Map<InetSocketAddress, FakePrinter> printers = new HashMap<>();
+        printers.put(fast.address(), fast);
+        printers.put(slow.address(), slow);
+        printers.put(dying.address(), dying);
+        for (int i = 0; i < count; i++) {
+            InetSocketAddress address = futures.get(i).get();
+            counts.merge(address, 1, Integer::sum);
+            FakePrinter printer = printers.get(address);
+            assertNotNull("job " + i + " on " + address, printer);
+            if (printer != dying) {
+                assertTrue("job " + i + " not received by " + address, contains(printer, jobs.get(i)));
+            }
+        }
+        int onFast = counts.getOrDefault(fast.address(), 0);
+        int onSlow = counts.getOrDefault(slow.address(), 0);
+        assertTrue(counts + " " + pool, onFast > onSlow);
+        assertTrue(pool.toString(), pool.toString().contains(refused + "{available=false"));
+        assertTrue(pool.toString(), pool.toString().contains(dying.address() + "{available=false"));
+    }
+
+    @Test
+    public void failsWhenEveryPrinterFails() throws Exception {
+        PrinterPool dead = PrinterPool.newPool(refused, FakePrinter.refusedAddress());
+        assertTrue(cause(dead.submit(new byte[100])) instanceof ConnectException);
+        dead.close();
+    }
+
+    @Test
+    public void submitAfterClose() throws Exception {
+        pool.close();
+        Throwable e = cause(pool.submit(new byte[1]));
+        assertTrue(String.valueOf(e), e instanceof IOException);
+    }
+
+    /**
+     * 唯一的打印机暂停分发期间，新任务仍重新连接该打印机
+     */
+    @Test
+    public void pausedPrinterIsUsedWhenNoOtherIsLeft() throws Exception {
+        try (FakePrinter only = FakePrinter.start().dieAfter(1000)) {
+            PrinterPool single = PrinterPool.newPool(only.address()).retryDelay(60_000);
+            assertTrue(cause(single.submit(new byte[4 << 20])) instanceof IOException);
+            assertTrue(single.toString(), single.toString().contains("available=false"));
+            assertEquals(only.address(), single.submit(new byte[100]).get(5, TimeUnit.SECONDS));
+            // 连接建立后模拟打印机才计数
+            for (int i = 0; i < 100 && only.connections() < 2; i++) Thread.sleep(10);
+            assertEquals(2, only.connections());
+            single.close();
+        }
+    }
+
+    /**
+     * 8字节编号开头，之后为随机数据
+     */
+    private static byte[] job(Random random, int id) {
+        byte[] job = new byte[JOB_SIZE];
+        random.nextBytes(job);
+        ByteBuffer.wrap(job).putLong(0x4a4f42L << 32 | id);
+        return job;
+    }
+
+    private static boolean contains(FakePrinter printer, byte[] job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        do {
+            byte[] received = printer.received();
+            for (int p = 0; p + job.length <= received.length; p++) {
+                if (received[p] == job[0] && received[p + 7] == job[7]
+                        && Arrays.equals(Arrays.copyOfRange(received, p, p + job.length), job)) {
+                    return true;
+                }
+            }
+            Thread.sleep(20);
+        } while (System.nanoTime() - deadline < 0);
+        return false;
+    }
+
+}
@@ -0,0 +1,247 @@
+package com.lingmoyun.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.lingmoyun.transport.PrinterConnectionTest.cause;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TaskResultListener与本地模拟打印机：分段回传、各种行尾、超长行、超时和断开
+ *
+ * @author guoweifeng
+ */
+public class TaskResultListenerTest {
+
+    private FakePrinter printer;
+    private PrinterConnection connection;
+    private TaskResultListener listener;
+    private final BlockingQueue<TaskResult> unknown = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        printer = FakePrinter.start();
+        connection = PrinterConnection.connect(printer.address(), null).get(5, TimeUnit.SECONDS);
+        listener = TaskResultListener.listen(connection).onUnknown(unknown::add);
+        awaitAccepted(printer);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        listener.close();
+        connection.close();
+        printer.close();
+    }
+
+    @Test
+    public void completesByTaskId() throws Exception {
+        CompletableFuture<TaskResult> result = listener.expect("1001");
+        assertEquals(1, listener.pendingCount());
+        reply("TASKID 1001 OK\r\n");
+        TaskResult r = result.get(5, TimeUnit.SECONDS);
+        assertEquals("1001", r.taskId());
+        assertEquals("OK", r.message());
+        assertEquals(0, listener.pendingCount());
+    }
+
+    /**
+     * 回传逐字节到达，行在多次读取间拼接
+     */
+    @Test
+    public void fragmentedReplies() throws Exception {
+        CompletableFuture<TaskResult> first = listener.expect("7");
+        CompletableFuture<TaskResult> second = listener.expect("8");
+        for (byte b : "TASKID:7,DONE\nTASKID=8 PAPER OUT\r".getBytes(StandardCharsets.US_ASCII)) {
+            printer.reply(new byte[]{b});
+            Thread.sleep(2);
+        }
+        assertEquals("DONE", first.get(5, TimeUnit.SECONDS).message());
+        assertEquals("PAPER OUT", second.get(5, TimeUnit.SECONDS).message());
+    }
+
+    /**
+     * 换行、回车、0都结束一行，空行忽略
+     */
+    @Test
+    public void terminators() throws Exception {
+        CompletableFuture<TaskResult> lf = listener.expect("1");
+        CompletableFuture<TaskResult> cr = listener.expect("2");
+        CompletableFuture<TaskResult> nul = listener.expect("3");
+        CompletableFuture<TaskResult> crlf = listener.expect("4");
+        reply("\n\r\0TASKID 1 A\nTASKID 2 B\rTASKID 3 C\0TASKID 4 D\r\n\0\0");
+        assertEquals("A", lf.get(5, TimeUnit.SECONDS).message());
+        assertEquals("B", cr.get(5, TimeUnit.SECONDS).message());
+        assertEquals("C", nul.get(5, TimeUnit.SECONDS).message());
+        assertEquals("D", crlf.get(5, TimeUnit.SECONDS).message());
+        assertEquals(0, listener.unknownCount());
+    }
+
+    /**
+     * 超过读缓冲区的行整行丢弃（包括跨多次读取的部分），之后的行正常解析
+     * 缓冲区满处之后恰好是一条结果，不应被当作新的一行
+     */
+    @Test
+    public void overLongLineDiscarded() throws Exception {
+        CompletableFuture<TaskResult> dropped = listener.expect("9");
+        CompletableFuture<TaskResult> next = listener.expect("10");
+        byte[] head = new byte[4096];
+        Arrays.fill(head, (byte) 'x');
+        System.arraycopy("TASKID 9 ".getBytes(StandardCharsets.US_ASCII), 0, head, 0, 9);
+        for (int p = 0; p < head.length; p += 1024) {
+            printer.reply(Arrays.copyOfRange(head, p, p + 1024));
+            Thread.sleep(2);
+        }
+        reply("TASKID 9 TAIL");
+        Thread.sleep(20);
+        reply(" more\nTASKID 10 OK\n");
+        assertEquals("OK", next.get(5, TimeUnit.SECONDS).message());
+        assertFalse(dropped.isDone());
+        assertEquals(0, listener.unknownCount());
+    }
+
+    /**
+     * 不超过读缓冲区的长行完整解析
+     */
+    @Test
+    public void longLineWithinBuffer() throws Exception {
+        CompletableFuture<TaskResult> result = listener.expect("11");
+        char[] message = new char[4000];
+        Arrays.fill(message, 'm');
+        reply("TASKID 11 " + new String(message) + "\n");
+        assertEquals(4000, result.get(5, TimeUnit.SECONDS).message().length());
+    }
+
+    @Test
+    public void gbkTaskId() throws Exception {
+        CompletableFuture<TaskResult> result = listener.expect("订单1");
+        printer.reply("TASKID 订单1 完成\n".getBytes(Charset.forName("GBK")));
+        assertEquals("完成", result.get(5, TimeUnit.SECONDS).message());
+    }
+
+    @Test
+    public void unknownIds() throws Exception {
+        reply("TASKID 404 OK\nSTATUS READY\n");
+        TaskResult r = unknown.poll(5, TimeUnit.SECONDS);
+        assertEquals("404", r.taskId());
+        assertEquals(1, listener.unknownCount());
+        assertEquals(null, unknown.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 超时后登记取消，之后到达的结果按未登记处理
+     */
+    @Test
+    public void timeout() throws Exception {
+        CompletableFuture<TaskResult> result = listener.expect("12", 100);
+        assertTrue(cause(result) instanceof TimeoutException);
+        // 登记在Future完成后的回调中移除
+        for (int i = 0; i < 100 && listener.pendingCount() > 0; i++) Thread.sleep(5);
+        assertEquals(0, listener.pendingCount());
+        reply("TASKID 12 LATE\n");
+        assertEquals("12", unknown.poll(5, TimeUnit.SECONDS).taskId());
+    }
+
+    @Test
+    public void cancelRemovesRegistration() throws Exception {
+        listener.expect("13").cancel(false);
+        assertEquals(0, listener.pendingCount());
+        listener.expect("13");
+        assertEquals(1, listener.pendingCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void duplicateTaskId() {
+        listener.expect("14");
+        listener.expect("14");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void oneListenerPerConnection() {
+        TaskResultListener.listen(connection);
+    }
+
+    /**
+     * 打印机断开时等待中的任务失败，之后登记的任务直接失败
+     */
+    @Test
+    public void eofFailsPending() throws Exception {
+        CompletableFuture<TaskResult> result = listener.expect("15");
+        printer.close();
+        assertTrue(cause(result) instanceof EOFException);
+        assertTrue(cause(listener.expect("16")) instanceof EOFException);
+    }
+
+    @Test
+    public void closeFailsPending() throws Exception {
+        CompletableFuture<TaskResult> result = listener.expect("17");
+        listener.close();
+        assertTrue(cause(result) instanceof ClosedChannelException);
+        assertTrue(connection.isOpen());
+    }
+
+    /**
+     * 自定义解析，解析异常只跳过该行
+     */
+    @Test
+    public void customParser() throws Exception {
+        try (FakePrinter other = FakePrinter.start()) {
+            PrinterConnection c = PrinterConnection.connect(other.address(), null).get(5, TimeUnit.SECONDS);
+            TaskResultListener custom = TaskResultListener.listen(c, line -> {
+                byte[] b = new byte[line.remaining()];
+                line.get(b);
+                String s = new String(b, StandardCharsets.US_ASCII);
+                if (s.startsWith("BAD")) throw new IllegalArgumentException(s);
+                return s.startsWith("JOB") ? TaskResult.of(s.substring(4), "printed") : null;
+            });
+            awaitAccepted(other);
+            CompletableFuture<TaskResult> result = custom.expect("A1");
+            other.reply("TASKID A1 OK\nBAD\nJOB A1\n".getBytes(StandardCharsets.US_ASCII));
+            assertEquals("printed", result.get(5, TimeUnit.SECONDS).message());
+            custom.close();
+            c.close();
+        }
+    }
+
+    @Test
+    public void prefixedParser() {
+        TaskResultParser parser = TaskResultParser.prefixed("RESULT");
+        assertEquals("5", parse(parser, "RESULT:5,OK").taskId());
+        assertEquals("OK", parse(parser, "RESULT:5,OK").message());
+        assertEquals("", parse(parser, "RESULT 5").message());
+        assertEquals("a b", parse(parser, "RESULT\t5 = a b").message());
+        assertEquals(null, parse(parser, "RESULTS 5 OK"));
+        assertEquals(null, parse(parser, "RESULT"));
+        assertEquals(null, parse(parser, "RESULT  "));
+        assertEquals(null, parse(parser, "TASKID 5 OK"));
+    }
+
+    private void reply(String s) throws Exception {
+        printer.reply(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static TaskResult parse(TaskResultParser parser, String line) {
+        return parser.parse(ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer());
+    }
+
+    private static void awaitAccepted(FakePrinter printer) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (printer.connections() == 0 && System.nanoTime() - deadline < 0) Thread.sleep(5);
+        assertEquals(1, printer.connections());
+    }
+
+}